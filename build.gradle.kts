@@ -3,6 +3,7 @@ import java.util.Properties
 plugins {
     java
     id("io.papermc.paperweight.userdev") version "1.7.3"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.anvilsunlocked"
@@ -33,6 +34,21 @@ repositories {
 
 dependencies {
     paperweight.paperDevBundle("1.21.1-R0.1-SNAPSHOT")
+    // Engine benchmarks and tests run without a server; snapshots only need Adventure
+    jmh("net.kyori:adventure-api:4.17.0")
+    testImplementation("net.kyori:adventure-api:4.17.0")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.3")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+// Benchmarks: ./gradlew jmh (results in build/results/jmh/)
+jmh {
+    // Benchmarks share the test fixture (TestRules)
+    includeTests.set(true)
+    profilers.set(listOf("gc"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
 }
 
 tasks {
@@ -54,4 +70,17 @@ tasks {
     assemble {
         dependsOn(reobfJar)
     }
+
+    // Engine tests run without a server: ./gradlew test
+    test {
+        useJUnitPlatform()
+    }
+
+    // Headless replay of a recorded workload: ./gradlew replay --args="<log> [--passes N] [--diffs N]"
+    register<JavaExec>("replay") {
+        group = "verification"
+        description = "Replays a recorded anvil workload through the engine"
+        classpath = sourceSets["main"].output + sourceSets["main"].compileClasspath
+        mainClass.set("com.anvilsunlocked.ReplayRunner")
+    }
 }
@@ -0,0 +1,92 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Prepare hot paths through {@link AnvilEngine}: enchant merge + total cost,
+ * same-type combine, unit repair and the "no change" rejection.
+ * Run with {@code ./gradlew jmh}; the gc profiler reports allocation per op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AnvilEngineBenchmark {
+    private AnvilEngine engine;
+
+    private ItemSnapshot godSword;
+    private ItemSnapshot swordBook;
+    private ItemSnapshot damagedChestplate;
+    private ItemSnapshot donorChestplate;
+    private ItemSnapshot protectionBook;
+    private ItemSnapshot unbreakingBook;
+    private ItemSnapshot veteranSword;
+    private ItemSnapshot damagedPickaxe;
+    private ItemSnapshot ingots;
+
+    @Setup
+    public void setup() {
+        TestRules rules = new TestRules();
+        engine = new AnvilEngine(rules, rules);
+
+        godSword = item(NETHERITE_SWORD, 0, 5, SHARPNESS, 5, LOOTING, 3, UNBREAKING, 3, MENDING, 1, FIRE_ASPECT, 2);
+        swordBook = book(2, SWEEPING_EDGE, 3, KNOCKBACK, 2, LOOTING, 3, SMITE, 5, SILK_TOUCH, 1);
+        damagedChestplate = item(NETHERITE_CHESTPLATE, 400, 3, PROTECTION, 4, UNBREAKING, 3, THORNS, 2);
+        donorChestplate = item(NETHERITE_CHESTPLATE, 100, 2, BLAST_PROTECTION, 4, UNBREAKING, 3, MENDING, 1,
+                THORNS, 2);
+        protectionBook = book(1, PROTECTION, 3, UNBREAKING, 2);
+        unbreakingBook = book(1, PROTECTION, 3, UNBREAKING, 3, MENDING, 1, VANISHING_CURSE, 1);
+        veteranSword = item(NETHERITE_SWORD, 1500, 15, SHARPNESS, 4, UNBREAKING, 2);
+        damagedPickaxe = item(NETHERITE_PICKAXE, 1800, 4, EFFICIENCY, 5, FORTUNE, 3, UNBREAKING, 3);
+        ingots = material(NETHERITE_INGOT, 4);
+    }
+
+    // Heavily enchanted netherite sword + multi-enchant book with conflicts
+    @Benchmark
+    public AnvilResult enchantedGearPlusBook() {
+        return engine.compute(godSword, swordBook, null);
+    }
+
+    // Same-type combine: durability merge, conflict override, +2 repair cost
+    @Benchmark
+    public AnvilResult sameTypeCombine() {
+        return engine.compute(damagedChestplate, donorChestplate, null);
+    }
+
+    // Book + book, including equal-level upgrades
+    @Benchmark
+    public AnvilResult bookPlusBook() {
+        return engine.compute(protectionBook, unbreakingBook, null);
+    }
+
+    // 15 prior uses: prior-work penalty at its clamp
+    @Benchmark
+    public AnvilResult fifteenUseItem() {
+        return engine.compute(veteranSword, swordBook, null);
+    }
+
+    @Benchmark
+    public AnvilResult unitRepair() {
+        return engine.compute(damagedPickaxe, ingots, null);
+    }
+
+    // Nothing applicable and nothing to repair: the former hasAnyChange rejection
+    @Benchmark
+    public AnvilResult noChange() {
+        return engine.compute(godSword, protectionBook, null);
+    }
+
+    @Benchmark
+    public AnvilResult renameOnly() {
+        return engine.compute(godSword, null, "Excalibur");
+    }
+}
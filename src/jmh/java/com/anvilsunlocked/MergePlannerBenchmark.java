@@ -0,0 +1,58 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * How {@link MergePlanner} scales with the number of inputs: a sword plus
+ * {@code inputs - 1} single-enchant books. The exact search runs without a
+ * time budget here, so the numbers show its real cost next to the greedy one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergePlannerBenchmark {
+    private static final int[] SWORD_ENCHANTS = { SHARPNESS, LOOTING, UNBREAKING, MENDING, FIRE_ASPECT,
+            SWEEPING_EDGE, KNOCKBACK };
+
+    @Param({ "4", "6", "8", "10", "12" })
+    public int inputs;
+
+    private MergePlanner planner;
+    private List<ItemSnapshot> items;
+
+    @Setup
+    public void setup() {
+        TestRules rules = new TestRules();
+        planner = new MergePlanner(new AnvilEngine(rules, rules));
+        items = new ArrayList<>();
+        items.add(item(NETHERITE_SWORD, 0, 0));
+        // Same enchant twice at level 1 then 2, so some merges level up
+        for (int i = 1; i < inputs; i++) {
+            int ench = SWORD_ENCHANTS[(i - 1) % SWORD_ENCHANTS.length];
+            items.add(book(0, ench, i <= SWORD_ENCHANTS.length ? 1 : 2));
+        }
+    }
+
+    @Benchmark
+    public MergePlanner.Plan greedy() {
+        return planner.greedy(items, 0);
+    }
+
+    @Benchmark
+    public MergePlanner.Plan optimal() {
+        return planner.optimal(items, 0, Long.MAX_VALUE);
+    }
+}
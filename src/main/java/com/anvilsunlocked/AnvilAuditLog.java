@@ -0,0 +1,321 @@
+package com.anvilsunlocked;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+
+/**
+ * Optional append-only log of anvil results actually taken (player, world,
+ * policy, inputs, output, level cost), one JSON object per line in
+ * {@code audit/anvil-audit.jsonl}.
+ * The click thread only enqueues copies of the stacks; a writer thread
+ * formats and writes whatever is queued in one batch, then flushes. The queue
+ * is lock-free and bounded: when the writer falls behind, transactions are
+ * dropped and counted. The file is rotated at a size limit, keeping a
+ * limited number of rotated files. A write error ends the log.
+ */
+final class AnvilAuditLog {
+    private static final int QUEUE_LIMIT = 8192;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final String CURRENT = "anvil-audit.jsonl";
+    private static final String ROTATED_PREFIX = "anvil-audit-";
+
+    // One taken result; stacks are private copies, read only by the writer
+    private static final class Transaction {
+        final long time;
+        final String player;
+        final UUID uuid;
+        final String world;
+        final String policy;
+        final int cost;
+        final ItemStack left;
+        final ItemStack right;
+        final ItemStack output;
+
+        Transaction(long time, String player, UUID uuid, String world, String policy, int cost, ItemStack left,
+                ItemStack right, ItemStack output) {
+            this.time = time;
+            this.player = player;
+            this.uuid = uuid;
+            this.world = world;
+            this.policy = policy;
+            this.cost = cost;
+            this.left = left;
+            this.right = right;
+            this.output = output;
+        }
+    }
+
+    private static final class Writer {
+        final Queue<Transaction> queue = new ConcurrentLinkedQueue<>();
+        // Queued and not yet written; bounds the queue without locking it
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        Thread thread;
+        volatile boolean stopping;
+        // Set when the writer failed; nothing is queued from then on
+        volatile boolean dead;
+        OutputStream out;
+        long size;
+
+        String summary() {
+            return written.get() + " anvil transactions logged"
+                    + (dropped.get() > 0 ? " (" + dropped.get() + " dropped, writer too slow)" : "")
+                    + (dead ? ", then a write error ended the log" : "");
+        }
+    }
+
+    private final File dir;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Logger logger;
+    // null while off
+    private final AtomicReference<Writer> writer = new AtomicReference<>();
+
+    /**
+     * @param maxFileBytes rotate the current file once it reaches this size
+     * @param maxFiles     rotated files to keep, 0 for all
+     */
+    AnvilAuditLog(File dir, long maxFileBytes, int maxFiles, Logger logger) {
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.logger = logger;
+    }
+
+    boolean isEnabled() {
+        return writer.get() != null;
+    }
+
+    synchronized void start() throws IOException {
+        if (writer.get() != null)
+            return;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+        Writer w = new Writer();
+        File file = new File(dir, CURRENT);
+        w.out = new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16);
+        w.size = file.length();
+        w.thread = new Thread(() -> drain(w), "AnvilsUnlocked-audit");
+        w.thread.setDaemon(true);
+        w.thread.start();
+        writer.set(w);
+    }
+
+    /**
+     * Stops logging and waits for the writer to flush the queue.
+     *
+     * @return a summary line, or null when the log was off
+     */
+    String stop() {
+        Writer w = writer.getAndSet(null);
+        if (w == null)
+            return null;
+        w.stopping = true;
+        LockSupport.unpark(w.thread);
+        try {
+            w.thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return w.summary();
+    }
+
+    // Queued and not yet written, 0 while off
+    int queued() {
+        Writer w = writer.get();
+        return w != null ? w.pending.get() : 0;
+    }
+
+    int dropped() {
+        Writer w = writer.get();
+        return w != null ? (int) Math.min(Integer.MAX_VALUE, w.dropped.get()) : 0;
+    }
+
+    /**
+     * Called on the clicking player's thread; never blocks. The stacks must be
+     * private copies (see {@link #copy}); the writer reads them later.
+     */
+    void log(Player player, String policy, ItemStack left, ItemStack right, ItemStack output, int cost) {
+        Writer w = writer.get();
+        if (w == null || w.dead)
+            return;
+        if (w.pending.incrementAndGet() > QUEUE_LIMIT) {
+            w.pending.decrementAndGet();
+            w.dropped.incrementAndGet();
+            return;
+        }
+        w.queue.offer(new Transaction(System.currentTimeMillis(), player.getName(), player.getUniqueId(),
+                player.getWorld().getName(), policy, cost, left, right, output));
+    }
+
+    // A copy to log, null for an empty slot
+    static ItemStack copy(ItemStack item) {
+        return item != null && !item.getType().isAir() ? item.clone() : null;
+    }
+
+    private void drain(Writer w) {
+        StringBuilder line = new StringBuilder(512);
+        try {
+            for (;;) {
+                // Read first, so whatever was queued before stop() still gets written
+                boolean stopping = w.stopping;
+                int batch = 0;
+                for (Transaction t; (t = w.queue.poll()) != null; batch++) {
+                    w.pending.decrementAndGet();
+                    line.setLength(0);
+                    format(line, t);
+                    byte[] bytes = line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+                    w.out.write(bytes);
+                    w.size += bytes.length;
+                    w.written.incrementAndGet();
+                    if (w.size >= maxFileBytes)
+                        rotate(w);
+                }
+                if (batch > 0)
+                    w.out.flush();
+                if (stopping)
+                    break;
+                if (batch == 0)
+                    LockSupport.parkNanos(IDLE_NANOS);
+            }
+        } catch (IOException | RuntimeException e) {
+            w.dead = true;
+            // Off from here on, unless stop() already took it out
+            writer.compareAndSet(w, null);
+            logger.warning("Anvil audit log in " + dir + " failed, stopped logging: " + e.getMessage() + " ("
+                    + w.summary() + ")");
+        } finally {
+            try {
+                w.out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void rotate(Writer w) throws IOException {
+        w.out.close();
+        // Sequence within the second, so that names sort oldest first
+        String stamp = ROTATED_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-";
+        File rotated;
+        for (int i = 0;; i++) {
+            rotated = new File(dir, stamp + String.format("%03d", i) + ".jsonl");
+            if (!rotated.exists())
+                break;
+        }
+        Files.move(new File(dir, CURRENT).toPath(), rotated.toPath());
+        if (maxFiles > 0) {
+            File[] old = dir.listFiles((d, name) -> name.startsWith(ROTATED_PREFIX) && name.endsWith(".jsonl"));
+            if (old != null && old.length > maxFiles) {
+                Arrays.sort(old);
+                for (int i = 0; i < old.length - maxFiles; i++) {
+                    if (!old[i].delete())
+                        logger.warning("Could not delete " + old[i]);
+                }
+            }
+        }
+        w.out = new BufferedOutputStream(new FileOutputStream(new File(dir, CURRENT), true), 1 << 16);
+        w.size = 0;
+    }
+
+    private static void format(StringBuilder sb, Transaction t) {
+        sb.append("{\"time\":\"").append(Instant.ofEpochMilli(t.time)).append("\",\"player\":");
+        string(sb, t.player);
+        sb.append(",\"uuid\":\"").append(t.uuid).append("\",\"world\":");
+        string(sb, t.world);
+        sb.append(",\"policy\":");
+        string(sb, t.policy);
+        sb.append(",\"cost\":").append(t.cost).append(",\"left\":");
+        item(sb, t.left);
+        sb.append(",\"right\":");
+        item(sb, t.right);
+        sb.append(",\"output\":");
+        item(sb, t.output);
+        sb.append('}');
+    }
+
+    private static void item(StringBuilder sb, ItemStack item) {
+        if (item == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append("{\"type\":\"").append(item.getType().getKey().asString()).append("\",\"amount\":")
+                .append(item.getAmount());
+        ItemMeta meta = item.hasItemMeta() ? item.getItemMeta() : null;
+        if (meta != null) {
+            if (meta instanceof Damageable damageable && damageable.hasDamage())
+                sb.append(",\"damage\":").append(damageable.getDamage());
+            Map<Enchantment, Integer> enchants = meta instanceof EnchantmentStorageMeta esm ? esm.getStoredEnchants()
+                    : meta.getEnchants();
+            if (!enchants.isEmpty()) {
+                sb.append(",\"enchants\":{");
+                boolean first = true;
+                for (Map.Entry<Enchantment, Integer> e : enchants.entrySet()) {
+                    if (!first)
+                        sb.append(',');
+                    first = false;
+                    sb.append('"').append(e.getKey().getKey().asString()).append("\":").append(e.getValue());
+                }
+                sb.append('}');
+            }
+            if (meta.hasDisplayName()) {
+                sb.append(",\"name\":");
+                string(sb, PlainTextComponentSerializer.plainText().serialize(meta.displayName()));
+            }
+        }
+        sb.append('}');
+    }
+
+    private static void string(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,61 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+/**
+ * /anvil player command.
+ */
+final class AnvilCommand implements TabExecutor {
+    private static final List<String> SUBCOMMANDS = List.of("merge", "plan");
+
+    private final BulkMerge bulkMerge;
+
+    AnvilCommand(BulkMerge bulkMerge) {
+        this.bulkMerge = bulkMerge;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0)
+            return false;
+        if (!(sender instanceof Player player)) {
+            sender.sendMessage("Only players can use this command.");
+            return true;
+        }
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "merge" -> {
+                bulkMerge.merge(player, args.length > 1 && args[1].equalsIgnoreCase("hand"));
+                return true;
+            }
+            case "plan" -> {
+                bulkMerge.plan(player, args.length > 1 && args[1].equalsIgnoreCase("hand"));
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        List<String> out = new ArrayList<>();
+        if (args.length == 1) {
+            for (String sub : SUBCOMMANDS) {
+                if (sub.startsWith(args[0].toLowerCase(Locale.ROOT)))
+                    out.add(sub);
+            }
+        } else if (args.length == 2 && SUBCOMMANDS.contains(args[0].toLowerCase(Locale.ROOT))
+                && "hand".startsWith(args[1])) {
+            out.add("hand");
+        }
+        return out;
+    }
+}
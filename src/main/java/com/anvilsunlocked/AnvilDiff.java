@@ -0,0 +1,284 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bukkit.GameMode;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.Repairable;
+
+import net.kyori.adventure.text.Component;
+
+/**
+ * Differential check of our anvil path (snapshot, {@link AnvilEngine},
+ * {@link ResultBuilder}) against the server's own anvil
+ * ({@link VanillaAnvil}). Randomized left/right/rename combinations go
+ * through both; results that differ (one side empty, cost, repair units,
+ * output item) are counted with a few examples, along with the time each
+ * path took per combination.
+ * Runs on the player's thread, {@value #BATCH} combinations per tick.
+ */
+final class AnvilDiff {
+    private static final int BATCH = 200;
+    private static final int EXAMPLES = 8;
+    private static final String[] NAMES = { "Alpha", "Beta", "Gamma" };
+    private static final Material[] MATERIALS = Material.values();
+
+    private enum Mismatch {
+        EMPTY("result vs empty"),
+        COST("cost"),
+        UNITS("repair units"),
+        ITEM("output item");
+
+        final String label;
+
+        Mismatch(String label) {
+            this.label = label;
+        }
+    }
+
+    // One run's state; touched only on the player's thread
+    private static final class Run {
+        final int count;
+        final long seed;
+        final Random random;
+        final VanillaAnvil.Probe probe;
+        final Map<Mismatch, Integer> mismatches = new EnumMap<>(Mismatch.class);
+        final List<String> examples = new ArrayList<>();
+        final LatencyHistogram ours = new LatencyHistogram();
+        final LatencyHistogram vanilla = new LatencyHistogram();
+        int done;
+        int differing;
+
+        Run(int count, long seed, VanillaAnvil.Probe probe) {
+            this.count = count;
+            this.seed = seed;
+            this.random = new Random(seed);
+            this.probe = probe;
+        }
+    }
+
+    private final AnvilEngine engine;
+    private final EnchantmentIndex enchantIndex;
+    private final ResultBuilder resultBuilder;
+    private final RepairRules repairs;
+    private final VanillaAnvil vanilla;
+    private final AnvilScheduler scheduler;
+    // Damageable item types to draw inputs from
+    private final List<Material> items = new ArrayList<>();
+    private final Map<Material, List<Material>> repairMaterials = new EnumMap<>(Material.class);
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    AnvilDiff(AnvilEngine engine, EnchantmentIndex enchantIndex, ResultBuilder resultBuilder, RepairRules repairs,
+            VanillaAnvil vanilla, AnvilScheduler scheduler) {
+        this.engine = engine;
+        this.enchantIndex = enchantIndex;
+        this.resultBuilder = resultBuilder;
+        this.repairs = repairs;
+        this.vanilla = vanilla;
+        this.scheduler = scheduler;
+        for (Material m : MATERIALS) {
+            if (m.isItem() && !m.isLegacy() && m.getMaxDurability() > 0)
+                items.add(m);
+        }
+    }
+
+    void run(Player player, int count, long seed) {
+        // Creative players may put any enchantment on anything in vanilla
+        if (player.getGameMode() == GameMode.CREATIVE) {
+            player.sendMessage("Run the diff in survival; vanilla skips enchantment checks in creative.");
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            player.sendMessage("A diff is already running.");
+            return;
+        }
+        VanillaAnvil.Probe probe;
+        try {
+            probe = vanilla.open(player);
+        } catch (Throwable t) {
+            running.set(false);
+            player.sendMessage("The server's anvil is not reachable on this version: " + t);
+            return;
+        }
+        player.sendMessage("Comparing " + count + " random anvil inputs with vanilla (seed " + seed + ")...");
+        Run run = new Run(count, seed, probe);
+        scheduler.runNextTick(player, () -> batch(player, run));
+    }
+
+    private void batch(Player player, Run run) {
+        if (!player.isOnline()) {
+            finish();
+            return;
+        }
+        try {
+            for (int i = 0; i < BATCH && run.done < run.count; i++) {
+                compare(run);
+                run.done++;
+            }
+        } catch (Throwable t) {
+            finish();
+            player.sendMessage("Anvil diff failed after " + run.done + " inputs: " + t);
+            return;
+        }
+        if (run.done < run.count) {
+            scheduler.runNextTick(player, () -> batch(player, run));
+            return;
+        }
+        finish();
+        report(player, run);
+    }
+
+    private void finish() {
+        vanilla.close();
+        running.set(false);
+    }
+
+    private void compare(Run run) {
+        Random r = run.random;
+        ItemStack left = r.nextInt(7) == 0 ? randomItem(r, Material.ENCHANTED_BOOK, true)
+                : randomItem(r, items.get(r.nextInt(items.size())), r.nextInt(4) != 0);
+        ItemStack right = randomRight(r, left);
+        // Typed names (sometimes the current one), cleared box, or untouched box
+        int pick = r.nextInt(10);
+        String renameText = pick < 3 ? NAMES[r.nextInt(NAMES.length)]
+                : pick == 3 ? "" : run.probe.currentName(left);
+
+        long start = System.nanoTime();
+        ItemSnapshot leftSnap = ItemSnapshots.capture(left, enchantIndex);
+        ItemSnapshot rightSnap = right == null ? null : ItemSnapshots.capture(right, enchantIndex);
+        AnvilResult result = engine.compute(leftSnap, rightSnap, renameText);
+        ItemStack ours = result.isEmpty() ? null : resultBuilder.build(left, result);
+        run.ours.record(System.nanoTime() - start);
+
+        run.probe.prepare(left, right, renameText);
+        start = System.nanoTime();
+        ItemStack theirs = run.probe.compute();
+        run.vanilla.record(System.nanoTime() - start);
+
+        Mismatch mismatch = null;
+        if ((ours == null) != (theirs == null))
+            mismatch = Mismatch.EMPTY;
+        else if (ours == null)
+            return;
+        else if (result.cost != run.probe.cost())
+            mismatch = Mismatch.COST;
+        else if (result.repairItemCount != run.probe.repairItemCount())
+            mismatch = Mismatch.UNITS;
+        else if (ours.getAmount() != theirs.getAmount() || !ours.isSimilar(theirs))
+            mismatch = Mismatch.ITEM;
+        if (mismatch == null)
+            return;
+        run.differing++;
+        run.mismatches.merge(mismatch, 1, Integer::sum);
+        if (run.examples.size() < EXAMPLES) {
+            run.examples.add("  #" + run.done + " " + label(left, leftSnap)
+                    + (right != null ? " + " + label(right, rightSnap) : "") + ", rename \"" + renameText + "\": "
+                    + mismatch.label + ", vanilla " + (theirs == null ? "empty" : run.probe.cost() + " levels")
+                    + ", ours " + (ours == null ? "empty" : result.cost + " levels"));
+        }
+    }
+
+    private void report(Player player, Run run) {
+        if (!player.isOnline())
+            return;
+        player.sendMessage("Anvil diff: " + run.count + " inputs (seed " + run.seed + "), "
+                + (run.count - run.differing) + " match, " + run.differing + " differ");
+        if (!run.mismatches.isEmpty()) {
+            StringBuilder sb = new StringBuilder("  ");
+            for (Map.Entry<Mismatch, Integer> e : run.mismatches.entrySet()) {
+                if (sb.length() > 2)
+                    sb.append(", ");
+                sb.append(e.getKey().label).append(": ").append(e.getValue());
+            }
+            player.sendMessage(sb.toString());
+        }
+        for (String line : run.examples) {
+            player.sendMessage(line);
+        }
+        long ours = run.ours.mean();
+        long theirs = run.vanilla.mean();
+        player.sendMessage("Ours: mean " + ours + " ns, p99 " + run.ours.percentile(0.99) + " ns; vanilla: mean "
+                + theirs + " ns, p99 " + run.vanilla.percentile(0.99) + " ns (incl. PrepareAnvilEvent); ratio "
+                + String.format(Locale.ROOT, "%.2f", theirs / (double) Math.max(1, ours)));
+    }
+
+    private ItemStack randomRight(Random r, ItemStack left) {
+        int pick = r.nextInt(20);
+        if (pick < 2)
+            return null;
+        if (pick < 7)
+            return randomItem(r, left.getType(), true);
+        if (pick < 14)
+            return randomItem(r, Material.ENCHANTED_BOOK, true);
+        if (pick < 17) {
+            List<Material> units = repairMaterialsFor(left.getType());
+            if (!units.isEmpty())
+                return new ItemStack(units.get(r.nextInt(units.size())), 1 + r.nextInt(4));
+        }
+        return randomItem(r, items.get(r.nextInt(items.size())), r.nextBoolean());
+    }
+
+    // Up to three enchantments, mostly ones that apply and rarely one level over max
+    private ItemStack randomItem(Random r, Material type, boolean applicableOnly) {
+        ItemStack stack = new ItemStack(type);
+        ItemMeta meta = stack.getItemMeta();
+        for (int i = r.nextInt(4); i > 0; i--) {
+            Enchantment ench = enchantIndex.byId(r.nextInt(enchantIndex.size()));
+            if (applicableOnly && !(meta instanceof EnchantmentStorageMeta) && !ench.canEnchantItem(stack))
+                continue;
+            int level = 1 + r.nextInt(ench.getMaxLevel() + (r.nextInt(20) == 0 ? 1 : 0));
+            if (meta instanceof EnchantmentStorageMeta esm)
+                esm.addStoredEnchant(ench, level, true);
+            else
+                meta.addEnchant(ench, level, true);
+        }
+        if (meta instanceof Damageable damageable && type.getMaxDurability() > 0)
+            damageable.setDamage(r.nextInt(type.getMaxDurability()));
+        if (meta instanceof Repairable repairable)
+            repairable.setRepairCost((1 << r.nextInt(5)) - 1);
+        if (r.nextInt(5) == 0)
+            meta.displayName(Component.text(NAMES[r.nextInt(NAMES.length)]));
+        stack.setItemMeta(meta);
+        return stack;
+    }
+
+    private List<Material> repairMaterialsFor(Material item) {
+        return repairMaterials.computeIfAbsent(item, k -> {
+            List<Material> units = new ArrayList<>();
+            for (Material m : MATERIALS) {
+                if (repairs.isRepairMaterial(k.ordinal(), m.ordinal()))
+                    units.add(m);
+            }
+            return units;
+        });
+    }
+
+    private String label(ItemStack stack, ItemSnapshot snap) {
+        StringBuilder sb = new StringBuilder(stack.getType().getKey().getKey());
+        if (stack.getAmount() > 1)
+            sb.append(" x").append(stack.getAmount());
+        if (snap.damage > 0)
+            sb.append(" dmg ").append(snap.damage);
+        if (snap.repairUses > 0)
+            sb.append(" uses ").append(snap.repairUses);
+        for (int i = 0; i < snap.enchantCount(); i++) {
+            sb.append(i == 0 ? " (" : ", ").append(enchantIndex.byId(snap.enchantIds[i]).getKey().getKey())
+                    .append(' ').append(snap.enchantLevels[i]);
+        }
+        if (snap.enchantCount() > 0)
+            sb.append(')');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,226 @@
+package com.anvilsunlocked;
+
+import java.util.Arrays;
+
+/**
+ * Bukkit-free anvil math. Works purely on {@link ItemSnapshot}s and returns an
+ * {@link AnvilResult}; the listener only touches Bukkit to apply it.
+ * Notes:
+ * - Vanilla cost math (prior work penalties, base costs, book halving,
+ * conflict rules), without the 40-level cap
+ * - Incompatible enchants: right overrides left on conflict
+ */
+final class AnvilEngine {
+    private static final ThreadLocal<MergeScratch> SCRATCH = ThreadLocal.withInitial(MergeScratch::new);
+
+    private final EnchantmentRules enchants;
+    private final RepairRules repairs;
+
+    AnvilEngine(EnchantmentRules enchants, RepairRules repairs) {
+        this.enchants = enchants;
+        this.repairs = repairs;
+    }
+
+    /**
+     * @param left       left input, null if the slot is empty
+     * @param right      right input, null if the slot is empty
+     * @param renameText text from the rename box, may be null or empty
+     */
+    AnvilResult compute(ItemSnapshot left, ItemSnapshot right, String renameText) {
+        if (left == null)
+            return AnvilResult.NONE;
+        String rename = renameText != null && !renameText.isEmpty() ? renameText : null;
+
+        if (right == null) {
+            // Rename-only: cost 1, does not change prior work uses
+            if (rename == null)
+                return AnvilResult.NONE;
+            return new AnvilResult(AnvilResult.Kind.RENAME, 1, 0, -1, null, null, rename, -1);
+        }
+
+        // Try unit-material repair first (e.g., diamonds for diamond gear)
+        int units = unitRepairUnits(left, right);
+        if (units > 0)
+            return unitRepair(left, right, rename, units);
+
+        return merge(left, right, rename);
+    }
+
+    private AnvilResult unitRepair(ItemSnapshot left, ItemSnapshot right, String rename, int units) {
+        int perUnit = Math.max(1, left.maxDurability / 4);
+        int damage = Math.max(0, left.damage - perUnit * units);
+        if (damage == left.damage && !nameChanged(left, rename))
+            return AnvilResult.NONE;
+        // Uses increment: max(left,right) + 1 (right is material, so usually 0)
+        int uses = Math.max(left.repairUses, right.repairUses) + 1;
+        int cost = priorWorkPenalty(left.repairUses) + priorWorkPenalty(right.repairUses) + units;
+        return new AnvilResult(AnvilResult.Kind.UNIT_REPAIR, cost, units, damage, null, null, rename, uses);
+    }
+
+    private AnvilResult merge(ItemSnapshot left, ItemSnapshot right, String rename) {
+        // Same-type tool/armor combine (vanilla rule): durability with ~12% bonus
+        boolean sameType = left.material == right.material && left.maxDurability > 0;
+        int damage = left.damage;
+        if (sameType && left.damageable) {
+            int max = left.maxDurability;
+            int leftRemaining = max - left.damage;
+            int rightRemaining = right.damageable ? max - right.damage : 0;
+            int bonus = (int) Math.floor(max * 0.12);
+            int totalRemaining = leftRemaining + rightRemaining + bonus;
+            damage = Math.max(0, max - Math.min(totalRemaining, max));
+        }
+
+        // Enchantment merge (right overrides left on conflict), on a per-thread
+        // level table indexed by dense enchantment id: no maps, no copies
+        MergeScratch merged = SCRATCH.get().reset(enchants.size());
+        int[] lv = merged.levels;
+        for (int i = 0; i < left.enchantCount(); i++) {
+            merged.add(left.enchantIds[i], left.enchantLevels[i]);
+        }
+        for (int r = 0; r < right.enchantCount(); r++) {
+            int ench = right.enchantIds[r];
+            int level = right.enchantLevels[r];
+            // Only enchants that can apply to the target; books store anything
+            if (!left.storesEnchants && !enchants.canApply(ench, left.material))
+                continue;
+            int max = enchants.maxLevel(ench);
+            int current = lv[ench];
+            if (current > 0) {
+                lv[ench] = current == level ? Math.min(max, current + 1) : Math.max(current, level);
+                continue;
+            }
+            // Remove conflicting LEFT enchants, then still add the right one
+            merged.removeConflicting(ench, enchants);
+            merged.add(ench, Math.min(level, max));
+        }
+        merged.clampToMax(enchants);
+
+        boolean enchantsChanged = !merged.sameAs(left);
+        boolean damageChanged = left.damageable && damage != left.damage;
+        boolean renameChanged = nameChanged(left, rename);
+        if (!enchantsChanged && !damageChanged && !renameChanged)
+            return AnvilResult.NONE;
+
+        // Total level cost per vanilla logic (but not clamped to 40)
+        int cost = priorWorkPenalty(left.repairUses) + priorWorkPenalty(right.repairUses);
+        // Durability repair via same-type combine adds +2 if damage reduced
+        if (sameType && damage < left.damage)
+            cost += 2;
+        // Enchantment costs from right contribution; books are halved
+        for (int r = 0; r < right.enchantCount(); r++) {
+            int ench = right.enchantIds[r];
+            int rightLvl = right.enchantLevels[r];
+            int prev = left.levelOf(ench);
+            int fin = lv[ench];
+            if (fin <= prev)
+                continue; // not applied, or no improvement from right
+            int usedLevel = rightLvl == prev ? fin : rightLvl; // equal-level merge uses final level
+            int base = enchants.baseCost(ench) * usedLevel;
+            if (right.storesEnchants)
+                base = (base + 1) / 2;
+            cost += base;
+        }
+        if (renameChanged)
+            cost += 1;
+        // Ensure minimum of 1 if any change occurred
+        if (cost < 1 && (enchantsChanged || renameChanged))
+            cost = 1;
+
+        // Only the result itself is allocated, and only when the enchant set changed
+        int[] ids = null;
+        int[] levels = null;
+        if (enchantsChanged) {
+            ids = Arrays.copyOf(merged.order, merged.count);
+            levels = new int[merged.count];
+            for (int i = 0; i < ids.length; i++) {
+                levels[i] = lv[ids[i]];
+            }
+        }
+        int uses = Math.max(left.repairUses, right.repairUses) + 1;
+        AnvilResult.Kind kind = sameType ? AnvilResult.Kind.COMBINE : AnvilResult.Kind.ENCHANT;
+        return new AnvilResult(kind, cost, 0, sameType ? damage : -1, ids, levels, rename, uses);
+    }
+
+    int unitRepairUnits(ItemSnapshot left, ItemSnapshot right) {
+        if (!repairs.isRepairMaterial(left.material, right.material))
+            return 0;
+        if (!left.damageable)
+            return 0;
+        int max = left.maxDurability;
+        if (max <= 0 || left.damage <= 0)
+            return 0;
+        int perUnit = Math.max(1, max / 4);
+        int needed = (int) Math.ceil(left.damage / (double) perUnit);
+        return Math.max(0, Math.min(needed, right.amount));
+    }
+
+    static int priorWorkPenalty(int uses) {
+        // Map uses to penalty 2^uses - 1; clamp to avoid overflow craziness
+        int n = Math.max(0, Math.min(15, uses));
+        return (1 << n) - 1;
+    }
+
+    // Whether applying rename would change the left's display name. The new
+    // name is Component.text(rename), which equals only a plain name of that text
+    private static boolean nameChanged(ItemSnapshot left, String rename) {
+        return rename != null && !rename.equals(left.plainName);
+    }
+
+    /**
+     * Per-thread merge workspace: levels by dense enchantment id (0 = absent)
+     * plus the ids present, in insertion order. Reset clears only the ids
+     * touched by the previous merge.
+     */
+    private static final class MergeScratch {
+        int[] levels = new int[0];
+        int[] order = new int[16];
+        int count;
+
+        MergeScratch reset(int size) {
+            for (int i = 0; i < count; i++) {
+                levels[order[i]] = 0;
+            }
+            count = 0;
+            if (levels.length < size)
+                levels = new int[size];
+            return this;
+        }
+
+        void add(int id, int level) {
+            if (count == order.length)
+                order = Arrays.copyOf(order, count * 2);
+            order[count++] = id;
+            levels[id] = level;
+        }
+
+        void removeConflicting(int id, EnchantmentRules rules) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int other = order[i];
+                if (rules.conflicts(id, other)) {
+                    levels[other] = 0;
+                    continue;
+                }
+                order[kept++] = other;
+            }
+            count = kept;
+        }
+
+        void clampToMax(EnchantmentRules rules) {
+            for (int i = 0; i < count; i++) {
+                int id = order[i];
+                levels[id] = Math.min(levels[id], rules.maxLevel(id));
+            }
+        }
+
+        boolean sameAs(ItemSnapshot item) {
+            if (item.enchantCount() != count)
+                return false;
+            for (int i = 0; i < count; i++) {
+                if (levels[item.enchantIds[i]] != item.enchantLevels[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+}
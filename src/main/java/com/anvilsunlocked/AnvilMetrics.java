@@ -0,0 +1,220 @@
+package com.anvilsunlocked;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Hot-path instrumentation: per-handler call counts and latency histograms,
+ * per-step result build timings, result-type breakdown, the result cache and
+ * max-cost enforcer counters, and live gauges such as open sessions.
+ * Counters are cumulative since enable or the last reset; gauges are read at
+ * report time.
+ */
+final class AnvilMetrics {
+    enum Handler {
+        PREPARE("prepare"),
+        PREPARE_TAIL("prepare-tail"),
+        CLICK("click"),
+        OPEN("open"),
+        CLOSE("close"),
+        COST_BAR("cost-bar"),
+        ASYNC_COMPUTE("async-compute");
+
+        final String label;
+
+        Handler(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final AnvilResult.Kind[] KINDS = AnvilResult.Kind.values();
+    private static final ResultBuilder.Step[] STEPS = ResultBuilder.Step.values();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Handler.values().length];
+    private final LatencyHistogram[] buildSteps = new LatencyHistogram[STEPS.length];
+    private final LongAdder[] results = new LongAdder[KINDS.length];
+    private final LongAdder costBarUpdates = new LongAdder();
+    private final LongAdder staleResults = new LongAdder();
+    private final LongAdder unchangedPrepares = new LongAdder();
+    private final LongAdder earlyRejects = new LongAdder();
+    private final AnvilResultCache cache;
+    private final MaxCostEnforcer enforcer;
+    // Label -> current value, registered once at enable
+    private final Map<String, IntSupplier> gauges = new ConcurrentSkipListMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    AnvilMetrics(AnvilResultCache cache, MaxCostEnforcer enforcer) {
+        this.cache = cache;
+        this.enforcer = enforcer;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < buildSteps.length; i++) {
+            buildSteps[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new LongAdder();
+        }
+    }
+
+    void gauge(String label, IntSupplier value) {
+        gauges.put(label, value);
+    }
+
+    void record(Handler handler, long nanos) {
+        latencies[handler.ordinal()].record(nanos);
+    }
+
+    void recordBuildStep(ResultBuilder.Step step, long nanos) {
+        buildSteps[step.ordinal()].record(nanos);
+    }
+
+    // Boss bar properties actually sent by one overlay flush
+    void recordCostBarUpdates(int updates) {
+        costBarUpdates.add(updates);
+    }
+
+    // Off-thread result dropped because the inputs changed meanwhile
+    void recordStaleResult() {
+        staleResults.increment();
+    }
+
+    // Prepare with the same inputs as the previous one; last result re-applied
+    void recordUnchangedPrepare() {
+        unchangedPrepares.increment();
+    }
+
+    // Prepare turned away by the precheck, before any snapshot
+    void recordEarlyReject() {
+        earlyRejects.increment();
+    }
+
+    void recordResult(AnvilResult.Kind kind) {
+        results[kind.ordinal()].increment();
+    }
+
+    void reset() {
+        for (LatencyHistogram h : latencies) {
+            h.reset();
+        }
+        for (LatencyHistogram h : buildSteps) {
+            h.reset();
+        }
+        for (LongAdder a : results) {
+            a.reset();
+        }
+        costBarUpdates.reset();
+        staleResults.reset();
+        unchangedPrepares.reset();
+        earlyRejects.reset();
+        cache.resetCounters();
+        enforcer.resetCounters();
+        since = System.currentTimeMillis();
+    }
+
+    List<String> report() {
+        List<String> lines = new ArrayList<>();
+        long seconds = Math.max(1, (System.currentTimeMillis() - since) / 1000);
+        lines.add("AnvilsUnlocked stats (last " + seconds + "s)");
+        for (Handler handler : Handler.values()) {
+            LatencyHistogram h = latencies[handler.ordinal()];
+            if (h.count() == 0)
+                continue;
+            lines.add(String.format(Locale.ROOT, "  %s: %d calls, p50 %s, p99 %s, max %s", handler.label, h.count(),
+                    micros(h.percentile(0.50)), micros(h.percentile(0.99)), micros(h.max())));
+        }
+        for (ResultBuilder.Step step : STEPS) {
+            LatencyHistogram h = buildSteps[step.ordinal()];
+            if (h.count() == 0)
+                continue;
+            lines.add(String.format(Locale.ROOT, "    build %s: %d, p50 %s, p99 %s, max %s", step.label, h.count(),
+                    micros(h.percentile(0.50)), micros(h.percentile(0.99)), micros(h.max())));
+        }
+        StringBuilder kinds = new StringBuilder("  results:");
+        for (AnvilResult.Kind kind : KINDS) {
+            kinds.append(' ').append(kindLabel(kind)).append('=').append(results[kind.ordinal()].sum());
+        }
+        lines.add(kinds.toString());
+        long hits = cache.hits();
+        long lookups = hits + cache.misses();
+        lines.add(String.format(Locale.ROOT, "  cache: %.1f%% hits (%d/%d), %d entries, %d evictions",
+                lookups == 0 ? 0.0 : hits * 100.0 / lookups, hits, lookups, cache.size(), cache.evictions()));
+        lines.add("  unchanged prepares skipped: " + unchangedPrepares.sum() + ", rejected early: "
+                + earlyRejects.sum());
+        lines.add("  max-cost corrections: " + enforcer.corrections());
+        lines.add("  cost-bar updates sent: " + costBarUpdates.sum());
+        lines.add("  async stale results dropped: " + staleResults.sum());
+        if (!gauges.isEmpty()) {
+            StringBuilder live = new StringBuilder("  live:");
+            gauges.forEach((label, value) -> live.append(' ').append(label).append('=').append(value.getAsInt()));
+            lines.add(live.toString());
+        }
+        return lines;
+    }
+
+    // Appends one row per metric: timestamp,metric,count,p50_ns,p99_ns,max_ns
+    void appendCsv(File file) throws IOException {
+        boolean header = !file.exists();
+        long now = System.currentTimeMillis();
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (header) {
+                out.write("timestamp,metric,count,p50_ns,p99_ns,max_ns");
+                out.newLine();
+            }
+            for (Handler handler : Handler.values()) {
+                LatencyHistogram h = latencies[handler.ordinal()];
+                out.write(now + "," + handler.label + "," + h.count() + "," + h.percentile(0.50) + ","
+                        + h.percentile(0.99) + "," + h.max());
+                out.newLine();
+            }
+            for (ResultBuilder.Step step : STEPS) {
+                LatencyHistogram h = buildSteps[step.ordinal()];
+                out.write(now + ",build." + step.label + "," + h.count() + "," + h.percentile(0.50) + ","
+                        + h.percentile(0.99) + "," + h.max());
+                out.newLine();
+            }
+            for (AnvilResult.Kind kind : KINDS) {
+                out.write(now + ",result." + kindLabel(kind) + "," + results[kind.ordinal()].sum() + ",,,");
+                out.newLine();
+            }
+            out.write(now + ",cache.hits," + cache.hits() + ",,,");
+            out.newLine();
+            out.write(now + ",cache.misses," + cache.misses() + ",,,");
+            out.newLine();
+            out.write(now + ",prepare.unchanged," + unchangedPrepares.sum() + ",,,");
+            out.newLine();
+            out.write(now + ",prepare.rejected," + earlyRejects.sum() + ",,,");
+            out.newLine();
+            out.write(now + ",max-cost.corrections," + enforcer.corrections() + ",,,");
+            out.newLine();
+            out.write(now + ",cost-bar.updates," + costBarUpdates.sum() + ",,,");
+            out.newLine();
+            out.write(now + ",async.stale," + staleResults.sum() + ",,,");
+            out.newLine();
+            for (Map.Entry<String, IntSupplier> gauge : gauges.entrySet()) {
+                out.write(now + ",live." + gauge.getKey() + "," + gauge.getValue().getAsInt() + ",,,");
+                out.newLine();
+            }
+        }
+    }
+
+    private static String kindLabel(AnvilResult.Kind kind) {
+        return kind.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,198 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+/**
+ * Anvil rules per world and permission group, from the {@code policies}
+ * config section. Each policy compiles into an {@link AnvilPolicy}; the
+ * selection compiles into a {@link Table} holding, for each named world and
+ * for all other worlds, the candidate policies in config order. The first
+ * candidate whose permission the player has applies, else the plain uncapped
+ * anvil.
+ * Every prepare resolves afresh (one map lookup, then a permission check per
+ * candidate), so permission changes apply at the next prepare. Reloads build
+ * a new table and swap it in whole.
+ */
+final class AnvilPolicies {
+    private static final String UNRESTRICTED = "default";
+
+    // A candidate policy and the permission it needs, null for everyone
+    private static final class Rule {
+        final String permission;
+        final AnvilPolicy policy;
+
+        Rule(String permission, AnvilPolicy policy) {
+            this.permission = permission;
+            this.policy = policy;
+        }
+    }
+
+    static final class Table {
+        // By id; id 0 is the plain uncapped anvil
+        final AnvilPolicy[] policies;
+        private final Map<String, Rule[]> byWorld;
+        private final Rule[] otherWorlds;
+
+        private Table(AnvilPolicy[] policies, Map<String, Rule[]> byWorld, Rule[] otherWorlds) {
+            this.policies = policies;
+            this.byWorld = byWorld;
+            this.otherWorlds = otherWorlds;
+        }
+
+        AnvilPolicy resolve(Player player) {
+            for (Rule rule : byWorld.getOrDefault(player.getWorld().getName(), otherWorlds)) {
+                if (rule.permission == null || player.hasPermission(rule.permission))
+                    return rule.policy;
+            }
+            return policies[0];
+        }
+    }
+
+    private final EnchantmentIndex index;
+    private final EnchantmentRules base;
+    private final RepairRules repairs;
+    private final Logger logger;
+    private volatile Table table;
+
+    AnvilPolicies(EnchantmentIndex index, EnchantmentRules base, RepairRules repairs, Logger logger) {
+        this.index = index;
+        this.base = base;
+        this.repairs = repairs;
+        this.logger = logger;
+    }
+
+    // Compiles the section (null: no policies) and swaps the table in
+    void load(ConfigurationSection section) {
+        table = compile(section);
+    }
+
+    int count() {
+        return table.policies.length - 1;
+    }
+
+    // The policy for the session's player right now; also kept on the session
+    AnvilPolicy forSession(AnvilSession session) {
+        AnvilPolicy policy = table.resolve(session.player);
+        session.policy = policy;
+        return policy;
+    }
+
+    AnvilPolicy forPlayer(Player player) {
+        return table.resolve(player);
+    }
+
+    // For anvils no player has open
+    AnvilPolicy unrestricted() {
+        return table.policies[0];
+    }
+
+    private Table compile(ConfigurationSection section) {
+        Map<String, Integer> ids = new HashMap<>(index.size() * 2);
+        for (int id = 0; id < index.size(); id++) {
+            ids.put(index.byId(id).getKey().asString(), id);
+        }
+        List<AnvilPolicy> policies = new ArrayList<>();
+        policies.add(AnvilPolicy.unrestricted(0, UNRESTRICTED, base, repairs));
+        // World name (null: any world) -> candidates, in config order
+        Map<String, List<Rule>> worlds = new LinkedHashMap<>();
+        List<Rule> anyWorld = new ArrayList<>();
+        if (section != null) {
+            for (String name : section.getKeys(false)) {
+                ConfigurationSection config = section.getConfigurationSection(name);
+                if (config == null) {
+                    logger.warning("policies: '" + name + "' must be a section");
+                    continue;
+                }
+                AnvilPolicy policy = compilePolicy(policies.size(), name, config, ids);
+                policies.add(policy);
+                Rule rule = new Rule(config.getString("permission"), policy);
+                List<String> names = config.getStringList("worlds");
+                if (names.isEmpty()) {
+                    // Also a candidate in every world named by an earlier or later policy
+                    anyWorld.add(rule);
+                    for (List<Rule> rules : worlds.values()) {
+                        rules.add(rule);
+                    }
+                } else {
+                    for (String world : names) {
+                        worlds.computeIfAbsent(world, k -> new ArrayList<>(anyWorld)).add(rule);
+                    }
+                }
+            }
+        }
+        Map<String, Rule[]> byWorld = new HashMap<>(worlds.size() * 2);
+        for (Map.Entry<String, List<Rule>> e : worlds.entrySet()) {
+            byWorld.put(e.getKey(), e.getValue().toArray(new Rule[0]));
+        }
+        return new Table(policies.toArray(new AnvilPolicy[0]), byWorld, anyWorld.toArray(new Rule[0]));
+    }
+
+    private AnvilPolicy compilePolicy(int id, String name, ConfigurationSection config, Map<String, Integer> ids) {
+        int n = index.size();
+        int words = (n + 63) >>> 6;
+        // 0: the enchantment's own max level
+        int[] maxLevels = new int[n];
+        ConfigurationSection levels = config.getConfigurationSection("max-levels");
+        if (levels != null) {
+            for (String key : levels.getKeys(false)) {
+                Integer ench = lookup(ids, key);
+                int level = levels.getInt(key, -1);
+                if (ench == null)
+                    logger.warning("policies." + name + ".max-levels: unknown enchantment '" + key + "'");
+                else if (level < 1 || level > 255)
+                    logger.warning("policies." + name + ".max-levels: level for '" + key + "' must be 1-255");
+                else
+                    maxLevels[ench] = level;
+            }
+        }
+        long[] banned = new long[n * words];
+        List<?> combos = config.getList("banned-combos");
+        if (combos != null) {
+            for (Object combo : combos) {
+                List<Integer> members = new ArrayList<>();
+                if (combo instanceof List<?> keys) {
+                    for (Object key : keys) {
+                        Integer ench = lookup(ids, String.valueOf(key));
+                        if (ench == null)
+                            logger.warning("policies." + name + ".banned-combos: unknown enchantment '" + key + "'");
+                        else
+                            members.add(ench);
+                    }
+                }
+                if (members.size() < 2) {
+                    logger.warning("policies." + name + ".banned-combos: " + combo + " needs two enchantments");
+                    continue;
+                }
+                for (int a : members) {
+                    for (int b : members) {
+                        if (a != b)
+                            banned[a * words + (b >>> 6)] |= 1L << b;
+                    }
+                }
+            }
+        }
+        int cap = config.getInt("cost-cap", 0);
+        double multiplier = config.getDouble("cost-multiplier", 1.0);
+        if (!(multiplier > 0)) {
+            logger.warning("policies." + name + ".cost-multiplier must be positive");
+            multiplier = 1.0;
+        }
+        return new AnvilPolicy(id, name, base, repairs, maxLevels, banned, (int) Math.round(multiplier * 100),
+                cap > 0 ? cap : AnvilPolicy.NO_CAP);
+    }
+
+    private static Integer lookup(Map<String, Integer> ids, String name) {
+        NamespacedKey key = NamespacedKey.fromString(name.toLowerCase(Locale.ROOT));
+        return key != null ? ids.get(key.asString()) : null;
+    }
+}
@@ -0,0 +1,118 @@
+package com.anvilsunlocked;
+
+/**
+ * One compiled anvil policy (see {@link AnvilPolicies}): max levels per
+ * enchantment, banned enchantment pairs, a cost multiplier and a cost cap,
+ * all in flat arrays. Serves as the {@link EnchantmentRules} of its own
+ * {@link AnvilEngine}, so raised or lowered max levels go through the regular
+ * merge; bans, multiplier and cap then apply to the engine's result. Max
+ * levels the policy does not set, and everything else, read through to the
+ * live base rules. Bukkit-free and immutable.
+ */
+final class AnvilPolicy implements EnchantmentRules {
+    static final int NO_CAP = Integer.MAX_VALUE;
+
+    // Index in its table; part of result cache keys
+    final int id;
+    final String name;
+    final AnvilEngine engine;
+    private final EnchantmentRules base;
+    // Configured max level per enchantment, 0 where the live base rules apply
+    private final int[] maxLevels;
+    // Row a, bit b set when a result may not carry both a and b
+    private final long[] banned;
+    private final int words;
+    private final boolean anyBanned;
+    // Cost multiplier in percent, 100 = unchanged
+    private final int costPercent;
+    private final int costCap;
+    // False when results pass through as the engine computed them
+    private final boolean adjusts;
+
+    AnvilPolicy(int id, String name, EnchantmentRules base, RepairRules repairs, int[] maxLevels, long[] banned,
+            int costPercent, int costCap) {
+        this.id = id;
+        this.name = name;
+        this.base = base;
+        this.maxLevels = maxLevels;
+        this.banned = banned;
+        this.words = (base.size() + 63) >>> 6;
+        boolean any = false;
+        for (long word : banned) {
+            any |= word != 0;
+        }
+        this.anyBanned = any;
+        this.costPercent = costPercent;
+        this.costCap = costCap;
+        this.adjusts = any || costPercent != 100 || costCap != NO_CAP;
+        this.engine = new AnvilEngine(this, repairs);
+    }
+
+    // Plain uncapped anvil: the base rules as they are
+    static AnvilPolicy unrestricted(int id, String name, EnchantmentRules base, RepairRules repairs) {
+        int n = base.size();
+        return new AnvilPolicy(id, name, base, repairs, new int[n], new long[n * ((n + 63) >>> 6)], 100, NO_CAP);
+    }
+
+    AnvilResult compute(ItemSnapshot left, ItemSnapshot right, String renameText) {
+        return apply(engine.compute(left, right, renameText));
+    }
+
+    // Bans, multiplier and cap on top of an engine result; NONE when the policy refuses it
+    AnvilResult apply(AnvilResult result) {
+        if (!adjusts || result.isEmpty())
+            return result;
+        if (anyBanned && result.enchantIds != null && hasBannedPair(result.enchantIds))
+            return AnvilResult.NONE;
+        int cost = scaleCost(result.cost);
+        if (cost > costCap)
+            return AnvilResult.NONE;
+        if (cost == result.cost)
+            return result;
+        return new AnvilResult(result.kind, cost, result.repairItemCount, result.damage, result.enchantIds,
+                result.enchantLevels, result.rename, result.repairUses);
+    }
+
+    // Cost after the multiplier, before the cap; never decreases as the cost grows
+    int scaleCost(int cost) {
+        return costPercent == 100 ? cost : (int) Math.min(NO_CAP, Math.max(1, ((long) cost * costPercent + 50) / 100));
+    }
+
+    private boolean hasBannedPair(int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            int row = ids[i] * words;
+            for (int j = i + 1; j < ids.length; j++) {
+                if ((banned[row + (ids[j] >>> 6)] & (1L << ids[j])) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return base.size();
+    }
+
+    @Override
+    public int maxLevel(int id) {
+        // Read through, so a datapack reload reaches policies without a recompile
+        int level = maxLevels[id];
+        return level != 0 ? level : base.maxLevel(id);
+    }
+
+    @Override
+    public int baseCost(int id) {
+        return base.baseCost(id);
+    }
+
+    @Override
+    public boolean conflicts(int a, int b) {
+        return base.conflicts(a, b);
+    }
+
+    @Override
+    public boolean canApply(int id, int material) {
+        return base.canApply(id, material);
+    }
+}
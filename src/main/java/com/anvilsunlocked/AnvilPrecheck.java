@@ -0,0 +1,58 @@
+package com.anvilsunlocked;
+
+import java.util.Map;
+
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Cheap read-only check, ahead of snapshots and clones, for prepares that
+ * cannot produce a result: a lone item with no rename, or a right item that
+ * neither repairs the left, nor is the same type, nor carries an enchantment
+ * that applies to it. Only uses the type pair and the enchantments the
+ * server stack exposes directly, so no ItemMeta is built; anything it cannot
+ * decide that way (books, damage, custom names) goes on to the engine.
+ * Must only reject what {@link AnvilEngine#compute} would turn into NONE.
+ */
+final class AnvilPrecheck {
+    private final EnchantmentIndex enchantIndex;
+    private final RepairRules repairs;
+
+    AnvilPrecheck(EnchantmentIndex enchantIndex, RepairRules repairs) {
+        this.enchantIndex = enchantIndex;
+        this.repairs = repairs;
+    }
+
+    /**
+     * @param left  non-empty left input
+     * @param right right input, null if the slot is empty
+     * @param rules the rules the engine will run on (the player's policy)
+     */
+    boolean cannotChange(ItemStack left, ItemStack right, String renameText, EnchantmentRules rules) {
+        // A rename can always change something, or needs the display name to tell
+        if (renameText != null && !renameText.isEmpty())
+            return false;
+        if (right == null)
+            return true;
+        Material leftType = left.getType();
+        Material rightType = right.getType();
+        // Same-type combines repair, books carry stored enchants; both need the meta
+        if (leftType == rightType || leftType == Material.ENCHANTED_BOOK || rightType == Material.ENCHANTED_BOOK)
+            return false;
+        if (repairs.isRepairMaterial(leftType.ordinal(), rightType.ordinal()))
+            return false;
+        // The merge clamps over-max left enchants, which counts as a change
+        for (Map.Entry<Enchantment, Integer> e : left.getEnchantments().entrySet()) {
+            int id = enchantIndex.idOf(e.getKey());
+            if (id >= 0 && e.getValue() > rules.maxLevel(id))
+                return false;
+        }
+        for (Map.Entry<Enchantment, Integer> e : right.getEnchantments().entrySet()) {
+            int id = enchantIndex.idOf(e.getKey());
+            if (id >= 0 && e.getValue() > 0 && rules.canApply(id, leftType.ordinal()))
+                return false;
+        }
+        return true;
+    }
+}
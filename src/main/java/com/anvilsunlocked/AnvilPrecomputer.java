@@ -0,0 +1,74 @@
+package com.anvilsunlocked;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Optional off-thread mode for expensive prepares: the player's
+ * {@link AnvilPolicy} runs on snapshots in a small worker pool and the result
+ * is handed back on the player's own thread next tick.
+ * Every prepare bumps the {@link AnvilSession} generation; a result whose
+ * generation is no longer current (inputs changed, anvil closed) is dropped,
+ * both before computing and before applying.
+ */
+final class AnvilPrecomputer {
+    private final AnvilScheduler scheduler;
+    private final AnvilMetrics metrics;
+    private final int minEnchants;
+    // null when the mode is off
+    private final ExecutorService workers;
+
+    AnvilPrecomputer(AnvilScheduler scheduler, AnvilMetrics metrics, int threads, int minEnchants) {
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.minEnchants = minEnchants;
+        this.workers = threads > 0 ? Executors.newFixedThreadPool(threads, daemonThreads()) : null;
+    }
+
+    // Small merges are cheaper inline than a round trip through the pool
+    boolean shouldOffload(ItemSnapshot left, ItemSnapshot right) {
+        return workers != null && right != null && left.enchantCount() + right.enchantCount() >= minEnchants;
+    }
+
+    // Computes on a worker and runs apply on the player's thread, unless stale by then
+    void submit(AnvilSession session, long generation, AnvilPolicy policy, ItemSnapshot left, ItemSnapshot right,
+            String renameText, Consumer<AnvilResult> apply) {
+        try {
+            workers.execute(() -> {
+                if (!session.isCurrent(generation)) {
+                    metrics.recordStaleResult();
+                    return;
+                }
+                long start = System.nanoTime();
+                AnvilResult result = policy.compute(left, right, renameText);
+                metrics.record(AnvilMetrics.Handler.ASYNC_COMPUTE, System.nanoTime() - start);
+                scheduler.runNextTick(session.player, () -> {
+                    if (session.isCurrent(generation))
+                        apply.accept(result);
+                    else
+                        metrics.recordStaleResult();
+                });
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down
+        }
+    }
+
+    void shutdown() {
+        if (workers != null)
+            workers.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "AnvilsUnlocked-compute-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,226 @@
+package com.anvilsunlocked;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.bukkit.Material;
+
+/**
+ * Optional recorder of anvil prepares (both input snapshots, rename text,
+ * result and cost) into a compact {@link WorkloadLog} under
+ * {@code recordings/}, for headless replay with {@link ReplayRunner}.
+ * Recording a prepare only enqueues its (immutable) snapshots and result on a
+ * lock-free queue; a writer thread encodes whatever is queued, writes each
+ * item type's material record before the first prepare that uses it, then
+ * flushes. The queue is bounded: when the disk cannot keep up, prepares are
+ * dropped and counted rather than stalling the tick. An I/O error ends the
+ * recording. The header holds the rules as they were at the start, so a
+ * rules change rolls the recording over to a new file (see
+ * {@link #aroundRulesChange}).
+ */
+final class AnvilRecorder {
+    private static final int QUEUE_LIMIT = 16384;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Material[] MATERIALS = Material.values();
+
+    // One recorded prepare, as the engine saw it
+    private static final class Prepare {
+        final ItemSnapshot left;
+        final ItemSnapshot right;
+        final String renameText;
+        final AnvilResult result;
+
+        Prepare(ItemSnapshot left, ItemSnapshot right, String renameText, AnvilResult result) {
+            this.left = left;
+            this.right = right;
+            this.renameText = renameText;
+            this.result = result;
+        }
+    }
+
+    private static final class Recording {
+        final File file;
+        final Queue<Prepare> queue = new ConcurrentLinkedQueue<>();
+        // Queued and not yet written; bounds the queue without locking it
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicLong records = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        // Item types whose material record is already in the log; writer thread only
+        final BitSet described = new BitSet(MATERIALS.length);
+        Thread writer;
+        volatile boolean stopping;
+
+        Recording(File file) {
+            this.file = file;
+        }
+
+        String summary() {
+            return records.get() + " prepares written to " + file.getName()
+                    + (dropped.get() > 0 ? " (" + dropped.get() + " dropped, writer too slow)" : "");
+        }
+    }
+
+    private final File dir;
+    private final EnchantmentIndex enchantIndex;
+    private final EnchantmentRules rules;
+    private final RepairRules repairs;
+    private final Logger logger;
+    // null while not recording
+    private volatile Recording recording;
+
+    AnvilRecorder(File dir, EnchantmentIndex enchantIndex, EnchantmentRules rules, RepairRules repairs,
+            Logger logger) {
+        this.dir = dir;
+        this.enchantIndex = enchantIndex;
+        this.rules = rules;
+        this.repairs = repairs;
+        this.logger = logger;
+    }
+
+    boolean isRecording() {
+        return recording != null;
+    }
+
+    // The new log file; the rules header is written before this returns
+    synchronized File start() throws IOException {
+        if (recording != null)
+            return recording.file;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+        String stamp = "anvil-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        // A roll-over can start a second file within the same second
+        File file = new File(dir, stamp + ".aurc");
+        for (int i = 1; file.exists(); i++) {
+            file = new File(dir, stamp + "-" + i + ".aurc");
+        }
+        Recording r = new Recording(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(r.file), 1 << 16));
+        try {
+            String[] keys = new String[enchantIndex.size()];
+            for (int id = 0; id < keys.length; id++) {
+                keys[id] = enchantIndex.byId(id).getKey().toString();
+            }
+            WorkloadLog.writeHeader(out, rules, keys, MATERIALS.length);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+        r.writer = new Thread(() -> drain(r, out), "AnvilsUnlocked-recorder");
+        r.writer.setDaemon(true);
+        r.writer.start();
+        recording = r;
+        return r.file;
+    }
+
+    /**
+     * Stops recording and waits for the writer to flush the queue.
+     *
+     * @return a summary line, or null when nothing was being recorded
+     */
+    String stop() {
+        Recording r;
+        synchronized (this) {
+            r = recording;
+            if (r == null)
+                return null;
+            recording = null;
+        }
+        // Outside the monitor: the writer takes it to end a failed recording
+        r.stopping = true;
+        LockSupport.unpark(r.writer);
+        try {
+            r.writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return r.summary();
+    }
+
+    /**
+     * Runs a change to the recorded rules (costs, policies' base, datapack
+     * tags). A recording in progress is closed first, so no prepare computed
+     * under the new rules lands under the old header, and continues in a new
+     * file with a fresh header afterwards.
+     */
+    void aroundRulesChange(String what, Runnable change) {
+        String summary = stop();
+        try {
+            change.run();
+        } finally {
+            if (summary != null) {
+                try {
+                    File file = start();
+                    logger.info(what + ": closed the recording (" + summary + "), continuing in " + file.getName());
+                } catch (IOException e) {
+                    logger.warning(what + ": closed the recording (" + summary + "), could not continue: "
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Called on region threads; never blocks
+    void record(ItemSnapshot left, ItemSnapshot right, String renameText, AnvilResult result) {
+        Recording r = recording;
+        if (r == null)
+            return;
+        if (r.pending.incrementAndGet() > QUEUE_LIMIT) {
+            r.pending.decrementAndGet();
+            r.dropped.incrementAndGet();
+            return;
+        }
+        r.queue.offer(new Prepare(left, right, renameText, result));
+    }
+
+    private void drain(Recording r, DataOutputStream out) {
+        try (out) {
+            for (;;) {
+                // Read first, so whatever was queued before stop() still gets written
+                boolean stopping = r.stopping;
+                int batch = 0;
+                for (Prepare p; (p = r.queue.poll()) != null; batch++) {
+                    r.pending.decrementAndGet();
+                    describe(r, out, p.left.material);
+                    if (p.right != null)
+                        describe(r, out, p.right.material);
+                    WorkloadLog.writePrepare(out, p.left, p.right, p.renameText, p.result);
+                    r.records.incrementAndGet();
+                }
+                if (batch > 0)
+                    out.flush();
+                if (stopping)
+                    return;
+                if (batch == 0)
+                    LockSupport.parkNanos(IDLE_NANOS);
+            }
+        } catch (IOException e) {
+            logger.warning("Recording to " + r.file + " failed, stopped recording: " + e.getMessage() + " ("
+                    + r.summary() + ")");
+            synchronized (this) {
+                if (recording == r)
+                    recording = null;
+            }
+        }
+    }
+
+    // Material records go before the first prepare that uses the item type
+    private void describe(Recording r, DataOutputStream out, int material) throws IOException {
+        if (r.described.get(material))
+            return;
+        WorkloadLog.writeMaterial(out, material, MATERIALS[material].name(), rules, repairs, MATERIALS.length);
+        r.described.set(material);
+    }
+}
@@ -0,0 +1,45 @@
+package com.anvilsunlocked;
+
+/**
+ * Outcome of {@link AnvilEngine#compute}: what to change on a clone of the left
+ * input and what it costs. Fields set to -1 / null are left untouched.
+ */
+final class AnvilResult {
+    enum Kind {
+        NONE,
+        RENAME,
+        UNIT_REPAIR,
+        COMBINE, // same-type repair + enchant merge
+        ENCHANT // book or cross-item enchant merge
+    }
+
+    static final AnvilResult NONE = new AnvilResult(Kind.NONE, 0, 0, -1, null, null, null, -1);
+
+    final Kind kind;
+    final int cost;
+    // Materials consumed by a unit repair, 0 otherwise
+    final int repairItemCount;
+    final int damage;
+    // Final enchant set (already clamped to max level); replaces the left's set.
+    // null when the merge left the enchants as they were
+    final int[] enchantIds;
+    final int[] enchantLevels;
+    final String rename;
+    final int repairUses;
+
+    AnvilResult(Kind kind, int cost, int repairItemCount, int damage, int[] enchantIds, int[] enchantLevels,
+            String rename, int repairUses) {
+        this.kind = kind;
+        this.cost = cost;
+        this.repairItemCount = repairItemCount;
+        this.damage = damage;
+        this.enchantIds = enchantIds;
+        this.enchantLevels = enchantLevels;
+        this.rename = rename;
+        this.repairUses = repairUses;
+    }
+
+    boolean isEmpty() {
+        return kind == Kind.NONE;
+    }
+}
@@ -0,0 +1,140 @@
+package com.anvilsunlocked;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Bounded LRU of computed anvil results, shared across the server.
+ * Keyed by the snapshots of both inputs, the rename text and the
+ * {@link AnvilPolicy} id; since the output is a clone of the left stack, a hit
+ * also requires the left stack to be similar to the one the entry was built
+ * from (lore, trims, other PDC...).
+ * Clearing starts a new generation; results computed against the previous
+ * rules are then dropped instead of stored.
+ */
+final class AnvilResultCache {
+    static final class Key {
+        private final ItemSnapshot left;
+        private final ItemSnapshot right;
+        private final String rename;
+        private final int policy;
+        private final int hash;
+
+        private Key(ItemSnapshot left, ItemSnapshot right, String rename, int policy) {
+            this.left = left;
+            this.right = right;
+            this.rename = rename;
+            this.policy = policy;
+            this.hash = 31 * (31 * (31 * left.hashCode() + Objects.hashCode(right)) + Objects.hashCode(rename))
+                    + policy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key other))
+                return false;
+            return hash == other.hash && policy == other.policy && left.equals(other.left)
+                    && Objects.equals(right, other.right) && Objects.equals(rename, other.rename);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class Entry {
+        private final ItemStack left;
+        final AnvilResult result;
+        private final ItemStack output;
+
+        private Entry(ItemStack left, AnvilResult result, ItemStack output) {
+            this.left = left;
+            this.result = result;
+            this.output = output;
+        }
+
+        // Fresh copy of the cached output, null for "no result"
+        ItemStack output() {
+            return output != null ? output.clone() : null;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long generation;
+
+    AnvilResultCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    static Key key(ItemSnapshot left, ItemSnapshot right, String renameText, AnvilPolicy policy) {
+        // The engine treats null and "" alike; so do we
+        String rename = renameText != null && !renameText.isEmpty() ? renameText : null;
+        return new Key(left, right, rename, policy.id);
+    }
+
+    synchronized Entry get(Key key, ItemStack left) {
+        Entry e = entries.get(key);
+        if (e == null || e.left.getAmount() != left.getAmount() || !e.left.isSimilar(left)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e;
+    }
+
+    // Read before computing; pass to put
+    synchronized long generation() {
+        return generation;
+    }
+
+    synchronized void put(Key key, long generation, ItemStack left, AnvilResult result, ItemStack output) {
+        if (generation != this.generation)
+            return;
+        entries.put(key, new Entry(left.clone(), result, output != null ? output.clone() : null));
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+
+    synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+}
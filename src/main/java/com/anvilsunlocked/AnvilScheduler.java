@@ -0,0 +1,68 @@
+package com.anvilsunlocked;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Schedules follow-up work on the thread that owns a player: the player's
+ * EntityScheduler on Folia, the main thread scheduler on Paper.
+ */
+final class AnvilScheduler {
+    private static final boolean FOLIA = detectFolia();
+
+    private final Plugin plugin;
+
+    AnvilScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    static boolean isFolia() {
+        return FOLIA;
+    }
+
+    // Run next tick on the entity's owning thread; dropped if the entity is removed first
+    void runNextTick(Entity entity, Runnable task) {
+        if (FOLIA) {
+            entity.getScheduler().run(plugin, t -> task.run(), null);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // Run next tick on the global region (the main thread on Paper), for
+    // players that are gone and whose entity scheduler no longer runs tasks
+    void runGlobal(Runnable task) {
+        if (FOLIA) {
+            Bukkit.getGlobalRegionScheduler().run(plugin, t -> task.run());
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // Repeating main thread task; Paper only, Folia has no main thread
+    void runEveryTick(Runnable task) {
+        Bukkit.getScheduler().runTaskTimer(plugin, task, 1L, 1L);
+    }
+
+    // One-off task off the tick threads, e.g. reloading config from disk
+    void runAsync(Runnable task) {
+        Bukkit.getAsyncScheduler().runNow(plugin, t -> task.run());
+    }
+
+    // Repeating task off the tick threads, for I/O such as periodic dumps
+    void runAsyncEvery(Runnable task, long period, TimeUnit unit) {
+        Bukkit.getAsyncScheduler().runAtFixedRate(plugin, t -> task.run(), period, period, unit);
+    }
+
+    private static boolean detectFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
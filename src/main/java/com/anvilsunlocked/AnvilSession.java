@@ -0,0 +1,96 @@
+package com.anvilsunlocked;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.view.AnvilView;
+
+/**
+ * One player's open anvil, from open until close or quit: the view, the
+ * overlay handle and the last prepared inputs and result. Touched only on the
+ * player's own thread, except the generation which async workers also read.
+ */
+final class AnvilSession {
+    final Player player;
+    final AnvilView view;
+    final CostOverlay.Handle overlay;
+    // Set by AnvilPolicies on every prepare
+    AnvilPolicy policy;
+
+    // Last prepared inputs and what we computed for them; NONE until then
+    AnvilResultCache.Key inputs;
+    AnvilResult result = AnvilResult.NONE;
+    ItemStack output;
+    // Copies of the last stacks and rename text, for the unchanged-prepare check,
+    // and the cache generation (cost table) and policy the result was computed under
+    private ItemStack leftStack;
+    private ItemStack rightStack;
+    private String renameText;
+    private long cacheGeneration;
+    private AnvilPolicy resultPolicy;
+
+    // Bumped per prepare; off-thread results for an older generation are dropped
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean closed;
+
+    AnvilSession(Player player, AnvilView view, CostOverlay.Handle overlay) {
+        this.player = player;
+        this.view = view;
+        this.overlay = overlay;
+    }
+
+    long nextGeneration() {
+        return generation.incrementAndGet();
+    }
+
+    boolean isCurrent(long generation) {
+        return !closed && this.generation.get() == generation;
+    }
+
+    // Cost of the result currently offered, 0 when there is none
+    int cost() {
+        return result.isEmpty() ? 0 : result.cost;
+    }
+
+    void remember(AnvilResultCache.Key inputs, AnvilResult result, ItemStack output, ItemStack left,
+            ItemStack right, String renameText, long cacheGeneration, AnvilPolicy policy) {
+        this.inputs = inputs;
+        this.result = result;
+        this.output = output;
+        this.leftStack = left != null ? left.clone() : null;
+        this.rightStack = right != null ? right.clone() : null;
+        this.renameText = renameText;
+        this.cacheGeneration = cacheGeneration;
+        this.resultPolicy = policy;
+    }
+
+    void forget() {
+        remember(null, AnvilResult.NONE, null, null, null, null, 0, null);
+    }
+
+    /**
+     * Whether a prepare has exactly the inputs of the last one under the same
+     * policy, so its result still stands. Server stacks compare by their
+     * components, without building any ItemMeta.
+     */
+    boolean unchanged(ItemStack left, ItemStack right, String renameText, long cacheGeneration, AnvilPolicy policy) {
+        return inputs != null && this.cacheGeneration == cacheGeneration && resultPolicy == policy
+                && Objects.equals(this.renameText, renameText) && same(leftStack, left) && same(rightStack, right);
+    }
+
+    private static boolean same(ItemStack last, ItemStack now) {
+        if (last == null || now == null)
+            return last == now;
+        return last.getAmount() == now.getAmount() && last.isSimilar(now);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+    }
+}
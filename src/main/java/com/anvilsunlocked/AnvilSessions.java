@@ -0,0 +1,133 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerKickEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.view.AnvilView;
+
+/**
+ * Owns every open {@link AnvilSession} and everything tied to it (overlay
+ * handle, pending max-cost fix, async generation), and releases it all when
+ * the anvil closes, the player quits, is kicked or changes world, and on
+ * disable. A periodic sweep catches views that went away without a close
+ * event.
+ */
+final class AnvilSessions implements Listener {
+    private static final long SWEEP_SECONDS = 30;
+
+    // Concurrent: on Folia each player's events run on the thread of the region they are in
+    private final Map<UUID, AnvilSession> sessions = new ConcurrentHashMap<>();
+    private final CostOverlay costOverlay;
+    private final MaxCostEnforcer maxCostEnforcer;
+    private final AnvilScheduler scheduler;
+
+    AnvilSessions(CostOverlay costOverlay, MaxCostEnforcer maxCostEnforcer, AnvilScheduler scheduler) {
+        this.costOverlay = costOverlay;
+        this.maxCostEnforcer = maxCostEnforcer;
+        this.scheduler = scheduler;
+    }
+
+    void startSweep() {
+        scheduler.runAsyncEvery(this::sweep, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    AnvilSession get(HumanEntity player) {
+        return sessions.get(player.getUniqueId());
+    }
+
+    // The player's session for this view, opened on demand (e.g. after a reload)
+    AnvilSession forView(AnvilView view) {
+        if (!(view.getPlayer() instanceof Player player))
+            return null;
+        AnvilSession session = sessions.get(player.getUniqueId());
+        if (session == null || session.view != view)
+            session = open(player, view);
+        return session;
+    }
+
+    AnvilSession open(Player player, AnvilView view) {
+        AnvilSession session = new AnvilSession(player, view, costOverlay.open(player));
+        AnvilSession previous = sessions.put(player.getUniqueId(), session);
+        if (previous != null)
+            release(previous);
+        return session;
+    }
+
+    void close(AnvilSession session) {
+        if (sessions.remove(session.player.getUniqueId(), session))
+            release(session);
+    }
+
+    // Whatever the player has open, if anything
+    void close(HumanEntity player) {
+        AnvilSession session = sessions.remove(player.getUniqueId());
+        if (session != null)
+            release(session);
+        else
+            maxCostEnforcer.forget(player);
+    }
+
+    void closeAll() {
+        for (Iterator<AnvilSession> it = sessions.values().iterator(); it.hasNext();) {
+            AnvilSession session = it.next();
+            it.remove();
+            release(session);
+        }
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        close(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onKick(PlayerKickEvent event) {
+        close(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(PlayerChangedWorldEvent event) {
+        close(event.getPlayer());
+    }
+
+    private void release(AnvilSession session) {
+        session.close();
+        costOverlay.close(session.overlay);
+        maxCostEnforcer.forget(session.player);
+    }
+
+    // Runs async, so it only picks out stale sessions: offline players are
+    // released on the global region, online ones checked on their own thread
+    private void sweep() {
+        List<AnvilSession> offline = new ArrayList<>();
+        for (AnvilSession session : sessions.values()) {
+            if (!session.player.isOnline()) {
+                offline.add(session);
+                continue;
+            }
+            scheduler.runNextTick(session.player, () -> {
+                if (session.player.getOpenInventory() != session.view)
+                    close(session);
+            });
+        }
+        if (!offline.isEmpty())
+            scheduler.runGlobal(() -> offline.forEach(this::close));
+    }
+}
@@ -1,12 +1,33 @@
 package com.anvilsunlocked;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public final class AnvilsUnlocked extends JavaPlugin {
 
+    // Above what an exact 12-input plan takes, cold JIT included; planning runs off the tick threads
+    private static final long DEFAULT_PLAN_BUDGET_MS = 1000;
+
     private static AnvilsUnlocked instance;
 
+    private AnvilScheduler scheduler;
+    private AnvilSessions sessions;
+    private CostOverlay costOverlay;
+    private EnchantmentIndex enchantIndex;
+    private BukkitEnchantmentRules enchantRules;
+    private AnvilPolicies policies;
+    private AnvilResultCache resultCache;
+    private AnvilPrecomputer precomputer;
+    private AnvilRecorder recorder;
+    private AnvilAuditLog auditLog;
+
     public static AnvilsUnlocked getInstance() {
         return instance;
     }
@@ -14,12 +35,154 @@ public final class AnvilsUnlocked extends JavaPlugin {
     @Override
     public void onEnable() {
         instance = this;
-        Bukkit.getPluginManager().registerEvents(new UncappedAnvilListener(), this);
+        saveDefaultConfig();
+        RepairMaterials repairMaterials = RepairMaterials.load(getConfig().getConfigurationSection("repair-materials"),
+                getLogger());
+        enchantIndex = EnchantmentIndex.fromRegistry();
+        enchantRules = new BukkitEnchantmentRules(enchantIndex,
+                EnchantmentCosts.load(enchantIndex, getConfig().getConfigurationSection("enchantment-costs"),
+                        getLogger()));
+        scheduler = new AnvilScheduler(this);
+        MaxCostEnforcer maxCostEnforcer = new MaxCostEnforcer(scheduler);
+        maxCostEnforcer.start();
+        resultCache = new AnvilResultCache(1024);
+        AnvilMetrics metrics = new AnvilMetrics(resultCache, maxCostEnforcer);
+        startMetricsDump(scheduler, metrics);
+        costOverlay = new CostOverlay(scheduler, metrics);
+        costOverlay.start();
+        AnvilEngine engine = new AnvilEngine(enchantRules, repairMaterials);
+        policies = new AnvilPolicies(enchantIndex, enchantRules, repairMaterials, getLogger());
+        policies.load(getConfig().getConfigurationSection("policies"));
+        recorder = new AnvilRecorder(new File(getDataFolder(), "recordings"), enchantIndex, enchantRules,
+                repairMaterials, getLogger());
+        if (getConfig().getBoolean("recorder.enabled", false))
+            startRecording(Bukkit.getConsoleSender());
+        long auditFileMb = getConfig().getLong("audit.max-file-mb", 16);
+        if (auditFileMb < 1) {
+            getLogger().warning("audit.max-file-mb must be at least 1; using 1");
+            auditFileMb = 1;
+        }
+        auditLog = new AnvilAuditLog(new File(getDataFolder(), "audit"), auditFileMb << 20,
+                getConfig().getInt("audit.max-files", 10), getLogger());
+        if (getConfig().getBoolean("audit.enabled", false)) {
+            try {
+                auditLog.start();
+            } catch (IOException e) {
+                getLogger().warning("Could not start the anvil audit log: " + e.getMessage());
+            }
+        }
+        precomputer = new AnvilPrecomputer(scheduler, metrics, getConfig().getInt("async.threads", 0),
+                getConfig().getInt("async.min-enchants", 6));
+        sessions = new AnvilSessions(costOverlay, maxCostEnforcer, scheduler);
+        sessions.startSweep();
+        metrics.gauge("sessions", sessions::size);
+        metrics.gauge("cost-bars", costOverlay::active);
+        metrics.gauge("max-cost-pending", maxCostEnforcer::pending);
+        metrics.gauge("audit-queued", auditLog::queued);
+        metrics.gauge("audit-dropped", auditLog::dropped);
+        VanillaAnvil vanillaAnvil = new VanillaAnvil();
+        Bukkit.getPluginManager().registerEvents(sessions, this);
+        Bukkit.getPluginManager().registerEvents(new EnchantmentReloadListener(enchantIndex, resultCache, recorder,
+                getLogger()),
+                this);
+        Bukkit.getPluginManager().registerEvents(
+                new UncappedAnvilListener(sessions, maxCostEnforcer, costOverlay, enchantIndex, policies,
+                        new AnvilPrecheck(enchantIndex, repairMaterials), precomputer, resultCache, recorder,
+                        auditLog, scheduler, vanillaAnvil, metrics),
+                this);
+        PluginCommand command = getCommand("anvilsunlocked");
+        if (command != null) {
+            AnvilDiff diff = new AnvilDiff(engine, enchantIndex, new ResultBuilder(enchantIndex, metrics),
+                    repairMaterials, vanillaAnvil, scheduler);
+            AnvilsUnlockedCommand executor = new AnvilsUnlockedCommand(this, metrics, diff);
+            command.setExecutor(executor);
+            command.setTabCompleter(executor);
+        }
+        PluginCommand anvil = getCommand("anvil");
+        if (anvil != null) {
+            long budget = getConfig().getLong("merge.plan-budget-ms", DEFAULT_PLAN_BUDGET_MS);
+            if (budget <= 0) {
+                getLogger().warning("merge.plan-budget-ms must be positive; using " + DEFAULT_PLAN_BUDGET_MS);
+                budget = DEFAULT_PLAN_BUDGET_MS;
+            }
+            AnvilCommand executor = new AnvilCommand(
+                    new BulkMerge(policies, enchantIndex, new ResultBuilder(enchantIndex, metrics), scheduler,
+                            budget));
+            anvil.setExecutor(executor);
+            anvil.setTabCompleter(executor);
+        }
         getLogger().info("AnvilsUnlocked enabled");
     }
 
+    // Re-reads config.yml off the tick threads and swaps in the new cost and
+    // policy tables; prepares keep using the old tables until the swap
+    void reloadRules(CommandSender sender) {
+        File file = new File(getDataFolder(), "config.yml");
+        scheduler.runAsync(() -> {
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+            recorder.aroundRulesChange("Enchantment costs reloaded", () -> {
+                enchantRules.setCosts(EnchantmentCosts.load(enchantIndex,
+                        config.getConfigurationSection("enchantment-costs"), getLogger()));
+                policies.load(config.getConfigurationSection("policies"));
+                // After both swaps: a prepare that sees the new generation also sees the new tables
+                resultCache.clear();
+            });
+            sender.sendMessage("AnvilsUnlocked enchantment costs and " + policies.count() + " policies reloaded.");
+        });
+    }
+
+    void startRecording(CommandSender sender) {
+        try {
+            File file = recorder.start();
+            sender.sendMessage("Recording anvil prepares to " + file.getName() + ".");
+        } catch (IOException e) {
+            sender.sendMessage("Could not start recording: " + e.getMessage());
+        }
+    }
+
+    void stopRecording(CommandSender sender) {
+        String summary = recorder.stop();
+        sender.sendMessage(summary != null ? "Stopped recording: " + summary + "." : "Not recording.");
+    }
+
+    // Optional periodic stats dump to the log or metrics.csv
+    private void startMetricsDump(AnvilScheduler scheduler, AnvilMetrics metrics) {
+        long interval = getConfig().getLong("metrics.dump-interval-seconds", 0);
+        if (interval <= 0)
+            return;
+        boolean csv = "csv".equalsIgnoreCase(getConfig().getString("metrics.dump-format", "log"));
+        File csvFile = new File(getDataFolder(), "metrics.csv");
+        scheduler.runAsyncEvery(() -> {
+            if (csv) {
+                try {
+                    metrics.appendCsv(csvFile);
+                } catch (IOException e) {
+                    getLogger().warning("Could not write " + csvFile + ": " + e.getMessage());
+                }
+            } else {
+                for (String line : metrics.report()) {
+                    getLogger().info(line);
+                }
+            }
+        }, interval, TimeUnit.SECONDS);
+    }
+
     @Override
     public void onDisable() {
+        // Release everything per player first, then the shared pieces
+        if (sessions != null)
+            sessions.closeAll();
+        if (precomputer != null)
+            precomputer.shutdown();
+        String recorded = recorder != null ? recorder.stop() : null;
+        if (recorded != null)
+            getLogger().info("Stopped recording: " + recorded);
+        if (auditLog != null && auditLog.isEnabled())
+            getLogger().info("Closed the anvil audit log: " + auditLog.stop());
+        if (costOverlay != null)
+            costOverlay.clear();
+        if (resultCache != null)
+            resultCache.clear();
         getLogger().info("AnvilsUnlocked disabled");
     }
 }
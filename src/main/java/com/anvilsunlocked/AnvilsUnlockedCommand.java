@@ -0,0 +1,98 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+/**
+ * /anvilsunlocked admin command.
+ */
+final class AnvilsUnlockedCommand implements TabExecutor {
+    private static final int MAX_DIFF = 100_000;
+    private static final List<String> SUBCOMMANDS = List.of("stats", "reload", "record", "diff");
+
+    private final AnvilsUnlocked plugin;
+    private final AnvilMetrics metrics;
+    private final AnvilDiff diff;
+
+    AnvilsUnlockedCommand(AnvilsUnlocked plugin, AnvilMetrics metrics, AnvilDiff diff) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+        this.diff = diff;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0)
+            return false;
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "stats" -> {
+                if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+                    metrics.reset();
+                    sender.sendMessage("AnvilsUnlocked stats reset.");
+                    return true;
+                }
+                for (String line : metrics.report()) {
+                    sender.sendMessage(line);
+                }
+                return true;
+            }
+            case "reload" -> {
+                plugin.reloadRules(sender);
+                return true;
+            }
+            case "record" -> {
+                if (args.length < 2)
+                    return false;
+                if (args[1].equalsIgnoreCase("start"))
+                    plugin.startRecording(sender);
+                else if (args[1].equalsIgnoreCase("stop"))
+                    plugin.stopRecording(sender);
+                else
+                    return false;
+                return true;
+            }
+            case "diff" -> {
+                if (!(sender instanceof Player player)) {
+                    sender.sendMessage("The diff drives an anvil on your inventory; run it as a player.");
+                    return true;
+                }
+                try {
+                    int count = args.length > 1 ? Math.max(1, Math.min(MAX_DIFF, Integer.parseInt(args[1]))) : 1000;
+                    long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+                    diff.run(player, count, seed);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        List<String> out = new ArrayList<>();
+        if (args.length == 1) {
+            for (String sub : SUBCOMMANDS) {
+                if (sub.startsWith(args[0].toLowerCase(Locale.ROOT)))
+                    out.add(sub);
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("stats") && "reset".startsWith(args[1])) {
+            out.add("reset");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("record")) {
+            for (String action : List.of("start", "stop")) {
+                if (action.startsWith(args[1].toLowerCase(Locale.ROOT)))
+                    out.add(action);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,45 @@
+package com.anvilsunlocked;
+
+/**
+ * {@link EnchantmentRules} backed by the {@link EnchantmentIndex} snapshot of
+ * the enchantment registry and the configured {@link EnchantmentCosts}.
+ */
+final class BukkitEnchantmentRules implements EnchantmentRules {
+    private final EnchantmentIndex index;
+    // Swapped whole on reload
+    private volatile EnchantmentCosts costs;
+
+    BukkitEnchantmentRules(EnchantmentIndex index, EnchantmentCosts costs) {
+        this.index = index;
+        this.costs = costs;
+    }
+
+    void setCosts(EnchantmentCosts costs) {
+        this.costs = costs;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public int maxLevel(int id) {
+        return index.maxLevel(id);
+    }
+
+    @Override
+    public int baseCost(int id) {
+        return costs.cost(id);
+    }
+
+    @Override
+    public boolean conflicts(int a, int b) {
+        return index.conflicts(a, b);
+    }
+
+    @Override
+    public boolean canApply(int id, int material) {
+        return index.canApply(id, material);
+    }
+}
@@ -0,0 +1,328 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Effect;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+
+/**
+ * Merges every enchanted book in a player's inventory in one go, either into
+ * a single book or onto the item in hand, instead of one anvil round trip per
+ * pair; or only shows the plan. Merging batches what an anvil does, so it
+ * needs one open or within reach, and wears it like vanilla: each step may
+ * damage it, and once it breaks the rest of the plan is left undone. Only books are taken as inputs besides the
+ * held item, so no other gear is ever consumed.
+ * The order is planned off the tick thread by {@link MergePlanner}, exactly
+ * for up to {@value MergePlanner#MAX_EXACT} inputs. Applying it is a single
+ * inventory transaction on the player's thread, after checking that the
+ * inventory did not change meanwhile. The player's {@link AnvilPolicy} applies
+ * as at an anvil: the plan is made under its max levels and adjusted costs,
+ * and around the steps its bans or cap refuse.
+ */
+final class BulkMerge {
+    // Main inventory plus hotbar
+    private static final int STORAGE_SLOTS = 36;
+    // Blocks from the player an anvil may be when none is open
+    private static final int ANVIL_REACH = 4;
+    // Vanilla's chance per use that the anvil takes damage
+    private static final float ANVIL_DAMAGE_CHANCE = 0.12f;
+    // Anvil wear stages in order; one more step of damage breaks it
+    private static final Material[] ANVIL_STAGES = { Material.ANVIL, Material.CHIPPED_ANVIL, Material.DAMAGED_ANVIL };
+
+    private final AnvilPolicies policies;
+    private final EnchantmentIndex enchantIndex;
+    private final ResultBuilder resultBuilder;
+    private final AnvilScheduler scheduler;
+    // Time the exact planner may take before falling back to greedy
+    private final long budgetNanos;
+
+    BulkMerge(AnvilPolicies policies, EnchantmentIndex enchantIndex, ResultBuilder resultBuilder,
+            AnvilScheduler scheduler, long budgetMillis) {
+        this.policies = policies;
+        this.enchantIndex = enchantIndex;
+        this.resultBuilder = resultBuilder;
+        this.scheduler = scheduler;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    // What a merge would use: slots, stack copies and their snapshots, under the player's policy
+    private static final class Inputs {
+        final AnvilPolicy policy;
+        final List<Integer> slots = new ArrayList<>();
+        final List<ItemStack> stacks = new ArrayList<>();
+        final List<ItemSnapshot> snaps = new ArrayList<>();
+        int root = -1;
+
+        Inputs(AnvilPolicy policy) {
+            this.policy = policy;
+        }
+
+        void add(int slot, ItemStack item, ItemSnapshot snap) {
+            slots.add(slot);
+            stacks.add(item.clone());
+            snaps.add(snap);
+        }
+    }
+
+    void merge(Player player, boolean ontoHand) {
+        if (anvilFor(player) == null) {
+            needAnvil(player);
+            return;
+        }
+        Inputs inputs = collect(player, ontoHand);
+        if (inputs == null)
+            return;
+        scheduler.runAsync(() -> {
+            MergePlanner.Plan plan = planFor(inputs);
+            scheduler.runNextTick(player, () -> apply(player, inputs, plan));
+        });
+    }
+
+    // Same selection and planning as merge, but only describes the plan
+    void plan(Player player, boolean ontoHand) {
+        Inputs inputs = collect(player, ontoHand);
+        if (inputs == null)
+            return;
+        scheduler.runAsync(() -> {
+            MergePlanner.Plan plan = planFor(inputs);
+            scheduler.runNextTick(player, () -> describe(player, inputs, plan));
+        });
+    }
+
+    private MergePlanner.Plan planFor(Inputs inputs) {
+        return new MergePlanner(inputs.policy).optimal(inputs.snaps, inputs.root, budgetNanos);
+    }
+
+    private Inputs collect(Player player, boolean ontoHand) {
+        PlayerInventory inv = player.getInventory();
+        Inputs inputs = new Inputs(policies.forPlayer(player));
+        int handSlot = inv.getHeldItemSlot();
+        ItemSnapshot target = null;
+        if (ontoHand) {
+            ItemStack hand = inv.getItem(handSlot);
+            if (hand == null || hand.getType() == Material.AIR || isBook(hand)) {
+                player.sendMessage("Hold the item to enchant in your main hand.");
+                return null;
+            }
+            target = ItemSnapshots.capture(hand, enchantIndex);
+            inputs.add(handSlot, hand, target);
+            inputs.root = 0;
+        }
+        for (int slot = 0; slot < STORAGE_SLOTS; slot++) {
+            if (ontoHand && slot == handSlot)
+                continue;
+            ItemStack item = inv.getItem(slot);
+            if (item == null || !isBook(item) || item.getAmount() != 1)
+                continue;
+            ItemSnapshot book = ItemSnapshots.capture(item, enchantIndex);
+            if (book.enchantCount() == 0)
+                continue;
+            // Onto an item: only books that apply to it in full
+            if (target != null && !MergePlanner.lossless(target, book, inputs.policy.compute(target, book, null)))
+                continue;
+            inputs.add(slot, item, book);
+        }
+        if (inputs.snaps.size() < 2) {
+            player.sendMessage("Nothing to merge.");
+            return null;
+        }
+        return inputs;
+    }
+
+    private void describe(Player player, Inputs inputs, MergePlanner.Plan plan) {
+        if (!player.isOnline())
+            return;
+        if (plan.steps() == 0) {
+            nothingToMerge(player, inputs);
+            return;
+        }
+        player.sendMessage("Merge plan (" + (plan.optimal ? "cheapest" : "best found in time") + "), "
+                + plan.totalCost + " levels:");
+        for (int k = 0; k < plan.steps(); k++) {
+            player.sendMessage("  " + (k + 1) + ". " + label(inputs, plan, plan.stepLeft[k]) + " + "
+                    + label(inputs, plan, plan.stepRight[k]) + ": " + plan.stepResult[k].cost + " levels");
+        }
+        if (plan.survivors.length > 1)
+            player.sendMessage("  " + (plan.survivors.length - 1) + " item(s) stay separate (conflicting enchants"
+                    + (inputs.policy.id != 0 ? ", or not allowed by the " + inputs.policy.name + " policy)." : ")."));
+    }
+
+    private String label(Inputs inputs, MergePlanner.Plan plan, int node) {
+        if (node >= plan.leaves)
+            return "result of " + (node - plan.leaves + 1);
+        ItemSnapshot snap = inputs.snaps.get(node);
+        StringBuilder sb = new StringBuilder(snap.storesEnchants ? "book"
+                : inputs.stacks.get(node).getType().getKey().getKey());
+        if (snap.enchantCount() > 0) {
+            sb.append(" (");
+            for (int i = 0; i < snap.enchantCount(); i++) {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(enchantIndex.byId(snap.enchantIds[i]).getKey().getKey()).append(' ')
+                        .append(snap.enchantLevels[i]);
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    private void apply(Player player, Inputs inputs, MergePlanner.Plan plan) {
+        // Paper still runs the task after a quit; Folia drops it
+        if (!player.isOnline())
+            return;
+        List<Integer> slots = inputs.slots;
+        List<ItemStack> stacks = inputs.stacks;
+        if (plan.steps() == 0) {
+            nothingToMerge(player, inputs);
+            return;
+        }
+        PlayerInventory inv = player.getInventory();
+        for (int i = 0; i < slots.size(); i++) {
+            ItemStack now = inv.getItem(slots.get(i));
+            ItemStack planned = stacks.get(i);
+            if (now == null || now.getAmount() != planned.getAmount() || !now.isSimilar(planned)) {
+                player.sendMessage("Your inventory changed; run the command again.");
+                return;
+            }
+        }
+        boolean creative = player.getGameMode() == GameMode.CREATIVE;
+        if (!creative && player.getLevel() < plan.totalCost) {
+            player.sendMessage("Merging needs " + plan.totalCost + " levels.");
+            return;
+        }
+
+        Block anvil = anvilFor(player);
+        if (anvil == null) {
+            needAnvil(player);
+            return;
+        }
+        // Roll vanilla's wear per step up front; a break ends the plan after that step
+        int stage = stage(anvil.getType());
+        int steps = plan.steps();
+        if (!creative) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int k = 0; k < plan.steps() && stage < ANVIL_STAGES.length; k++) {
+                if (random.nextFloat() < ANVIL_DAMAGE_CHANCE && ++stage == ANVIL_STAGES.length)
+                    steps = k + 1;
+            }
+        }
+
+        // Replay the plan on real stacks; each node lives in its leftmost input's slot
+        int nodes = plan.leaves + steps;
+        ItemStack[] built = new ItemStack[nodes];
+        int[] slotOf = new int[nodes];
+        boolean[] consumed = new boolean[nodes];
+        for (int i = 0; i < plan.leaves; i++) {
+            built[i] = stacks.get(i);
+            slotOf[i] = slots.get(i);
+        }
+        int cost = 0;
+        for (int k = 0; k < steps; k++) {
+            int node = plan.leaves + k;
+            built[node] = resultBuilder.build(built[plan.stepLeft[k]], plan.stepResult[k]);
+            slotOf[node] = slotOf[plan.stepLeft[k]];
+            consumed[plan.stepLeft[k]] = true;
+            consumed[plan.stepRight[k]] = true;
+            inv.setItem(slotOf[plan.stepRight[k]], null);
+            cost += plan.stepResult[k].cost;
+        }
+        for (int node = 0; node < nodes; node++) {
+            if (!consumed[node])
+                inv.setItem(slotOf[node], built[node]);
+        }
+        if (!creative)
+            player.setLevel(player.getLevel() - cost);
+        wear(anvil, stage);
+        if (steps < plan.steps())
+            player.sendMessage("The anvil broke after " + steps + " of " + plan.steps() + " steps; merged for "
+                    + cost + " levels.");
+        else
+            player.sendMessage("Merged in " + steps + " steps for " + cost + " levels.");
+    }
+
+    // The anvil the player has open, else the nearest one within reach; null if none
+    private static Block anvilFor(Player player) {
+        Inventory top = player.getOpenInventory().getTopInventory();
+        if (top.getType() == InventoryType.ANVIL) {
+            Location at = top.getLocation();
+            if (at != null && stage(at.getBlock().getType()) >= 0)
+                return at.getBlock();
+        }
+        Location at = player.getLocation();
+        World world = player.getWorld();
+        Block nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int dx = -ANVIL_REACH; dx <= ANVIL_REACH; dx++) {
+            for (int dy = -ANVIL_REACH; dy <= ANVIL_REACH; dy++) {
+                for (int dz = -ANVIL_REACH; dz <= ANVIL_REACH; dz++) {
+                    int distance = dx * dx + dy * dy + dz * dz;
+                    if (distance >= nearestDistance)
+                        continue;
+                    Block block = world.getBlockAt(at.getBlockX() + dx, at.getBlockY() + dy, at.getBlockZ() + dz);
+                    if (stage(block.getType()) >= 0) {
+                        nearest = block;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    // Index in ANVIL_STAGES, -1 for anything that is not an anvil
+    private static int stage(Material type) {
+        for (int i = 0; i < ANVIL_STAGES.length; i++) {
+            if (ANVIL_STAGES[i] == type)
+                return i;
+        }
+        return -1;
+    }
+
+    // Sets the anvil to its stage after the merge, keeping its facing, or breaks it
+    private static void wear(Block anvil, int stage) {
+        World world = anvil.getWorld();
+        if (stage >= ANVIL_STAGES.length) {
+            anvil.setType(Material.AIR);
+            world.playEffect(anvil.getLocation(), Effect.ANVIL_BREAK, 0);
+            return;
+        }
+        if (anvil.getType() != ANVIL_STAGES[stage]) {
+            BlockData worn = ANVIL_STAGES[stage].createBlockData();
+            if (anvil.getBlockData() instanceof Directional from && worn instanceof Directional to)
+                to.setFacing(from.getFacing());
+            anvil.setBlockData(worn);
+        }
+        world.playEffect(anvil.getLocation(), Effect.ANVIL_USE, 0);
+    }
+
+    private static void needAnvil(Player player) {
+        player.sendMessage("Open an anvil, or stand within " + ANVIL_REACH + " blocks of one, to merge.");
+    }
+
+    private static void nothingToMerge(Player player, Inputs inputs) {
+        if (inputs.policy.id == 0)
+            player.sendMessage("Nothing to merge.");
+        else
+            player.sendMessage("Nothing to merge under the anvil policy here (" + inputs.policy.name
+                    + "): conflicting enchants, a banned enchantment combination or a step over its cost cap.");
+    }
+
+    private static boolean isBook(ItemStack item) {
+        return item.getType() == Material.ENCHANTED_BOOK && item.getItemMeta() instanceof EnchantmentStorageMeta;
+    }
+}
@@ -0,0 +1,197 @@
+package com.anvilsunlocked;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.boss.BarColor;
+import org.bukkit.boss.BarStyle;
+import org.bukkit.boss.BossBar;
+import org.bukkit.entity.Player;
+
+/**
+ * Boss bar showing the anvil cost to the player at the anvil.
+ * Each anvil session opens a {@link Handle}; prepare only records the desired
+ * cost, color and progress on it. Changes are flushed at most once per tick
+ * per player (same scheduling as {@link MaxCostEnforcer}) and only the
+ * properties that differ from what the bar already shows are sent. Bars are
+ * pooled across anvil sessions.
+ */
+final class CostOverlay {
+    private static final int POOL_LIMIT = 64;
+
+    // A bar plus what it currently shows, so updates can be diffed
+    private static final class Bar {
+        final BossBar bar;
+        int cost = -1;
+        BarColor color;
+        double progress;
+
+        Bar(BossBar bar) {
+            this.bar = bar;
+            this.color = bar.getColor();
+            this.progress = bar.getProgress();
+        }
+    }
+
+    /**
+     * One player's overlay for the length of an anvil session. Touched only on
+     * that player's thread; holds a pooled bar only while visible.
+     */
+    static final class Handle {
+        final Player player;
+        private Bar bar;
+        private int cost;
+        private BarColor color;
+        private double progress;
+        private boolean visible;
+        private boolean closed;
+
+        private Handle(Player player) {
+            this.player = player;
+        }
+    }
+
+    private final AnvilScheduler scheduler;
+    private final AnvilMetrics metrics;
+    private final Map<UUID, Handle> handles = new ConcurrentHashMap<>();
+    private final Map<UUID, Handle> dirty = new ConcurrentHashMap<>();
+    private final ArrayBlockingQueue<Bar> pool = new ArrayBlockingQueue<>(POOL_LIMIT);
+
+    CostOverlay(AnvilScheduler scheduler, AnvilMetrics metrics) {
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+    }
+
+    void start() {
+        if (!AnvilScheduler.isFolia())
+            scheduler.runEveryTick(this::flushAll);
+    }
+
+    Handle open(Player player) {
+        Handle handle = new Handle(player);
+        Handle previous = handles.put(player.getUniqueId(), handle);
+        if (previous != null)
+            close(previous);
+        return handle;
+    }
+
+    void show(Handle handle, int cost) {
+        if (handle.closed)
+            return;
+        Player player = handle.player;
+        boolean creative = player.getGameMode() == GameMode.CREATIVE;
+        int level = player.getLevel();
+        handle.cost = cost;
+        handle.color = creative || level >= cost ? BarColor.GREEN : BarColor.RED;
+        handle.progress = creative || cost <= 0 ? 1.0 : Math.min(1.0, (double) Math.min(level, cost) / cost);
+        handle.visible = true;
+        UUID id = player.getUniqueId();
+        if (dirty.put(id, handle) == null && AnvilScheduler.isFolia())
+            scheduler.runNextTick(player, () -> flush(id));
+    }
+
+    // Immediate, so the bar never outlives the result; drops any pending update
+    void hide(Handle handle) {
+        handle.visible = false;
+        dirty.remove(handle.player.getUniqueId(), handle);
+        if (handle.bar != null) {
+            release(handle.bar);
+            handle.bar = null;
+        }
+    }
+
+    void close(Handle handle) {
+        hide(handle);
+        handle.closed = true;
+        handles.remove(handle.player.getUniqueId(), handle);
+    }
+
+    // Hides every bar; used on disable
+    void clear() {
+        dirty.clear();
+        for (Iterator<Handle> it = handles.values().iterator(); it.hasNext();) {
+            Handle handle = it.next();
+            it.remove();
+            handle.closed = true;
+            if (handle.bar != null) {
+                release(handle.bar);
+                handle.bar = null;
+            }
+        }
+        pool.clear();
+    }
+
+    int active() {
+        return handles.size();
+    }
+
+    private void flushAll() {
+        if (dirty.isEmpty())
+            return;
+        for (Iterator<Handle> it = dirty.values().iterator(); it.hasNext();) {
+            Handle handle = it.next();
+            it.remove();
+            apply(handle);
+        }
+    }
+
+    private void flush(UUID id) {
+        Handle handle = dirty.remove(id);
+        if (handle != null)
+            apply(handle);
+    }
+
+    private void apply(Handle handle) {
+        // Hidden or closed since it was marked
+        if (handle.closed || !handle.visible)
+            return;
+        long start = System.nanoTime();
+        int updates = 0;
+        try {
+            Bar bar = handle.bar;
+            boolean attach = bar == null;
+            if (attach)
+                bar = handle.bar = acquire();
+            if (bar.cost != handle.cost) {
+                bar.bar.setTitle("Anvil cost: " + handle.cost);
+                bar.cost = handle.cost;
+                updates++;
+            }
+            if (bar.color != handle.color) {
+                bar.bar.setColor(handle.color);
+                bar.color = handle.color;
+                updates++;
+            }
+            if (bar.progress != handle.progress) {
+                bar.bar.setProgress(handle.progress);
+                bar.progress = handle.progress;
+                updates++;
+            }
+            if (attach) {
+                bar.bar.addPlayer(handle.player);
+                updates++;
+            }
+        } catch (Throwable ignored) {
+        }
+        metrics.record(AnvilMetrics.Handler.COST_BAR, System.nanoTime() - start);
+        metrics.recordCostBarUpdates(updates);
+    }
+
+    private Bar acquire() {
+        Bar bar = pool.poll();
+        return bar != null ? bar : new Bar(Bukkit.createBossBar("", BarColor.GREEN, BarStyle.SOLID));
+    }
+
+    private void release(Bar bar) {
+        try {
+            bar.bar.removeAll();
+        } catch (Throwable ignored) {
+        }
+        pool.offer(bar);
+    }
+}
@@ -0,0 +1,127 @@
+package com.anvilsunlocked;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.enchantments.Enchantment;
+
+/**
+ * Base anvil cost multiplier per enchantment, resolved into an array indexed
+ * by {@link EnchantmentIndex} id.
+ * Each entry comes from, in order: the {@code enchantment-costs} config
+ * section, the built-in table for vanilla enchantments, the registry's own
+ * anvil cost (datapack enchantments), and finally 1. Immutable; reloads build
+ * a new table.
+ */
+final class EnchantmentCosts {
+    // Vanilla-like base cost multipliers (rounded to familiar community tables)
+    private static final Map<String, Integer> BUILT_IN = new HashMap<>();
+
+    static {
+        // Armor
+        BUILT_IN.put("protection", 1);
+        BUILT_IN.put("fire_protection", 2);
+        BUILT_IN.put("feather_falling", 4);
+        BUILT_IN.put("blast_protection", 4);
+        BUILT_IN.put("projectile_protection", 2);
+        BUILT_IN.put("respiration", 4);
+        BUILT_IN.put("aqua_affinity", 4);
+        BUILT_IN.put("thorns", 8);
+        BUILT_IN.put("depth_strider", 4);
+        BUILT_IN.put("frost_walker", 4);
+        BUILT_IN.put("soul_speed", 8);
+        BUILT_IN.put("swift_sneak", 8);
+
+        // Tools / weapons
+        BUILT_IN.put("sharpness", 1);
+        BUILT_IN.put("smite", 2);
+        BUILT_IN.put("bane_of_arthropods", 2);
+        BUILT_IN.put("knockback", 2);
+        BUILT_IN.put("fire_aspect", 4);
+        BUILT_IN.put("looting", 4);
+        BUILT_IN.put("sweeping", 4); // sweeping edge
+        BUILT_IN.put("efficiency", 1);
+        BUILT_IN.put("silk_touch", 8);
+        BUILT_IN.put("unbreaking", 2);
+        BUILT_IN.put("fortune", 4);
+
+        // Bows
+        BUILT_IN.put("power", 1);
+        BUILT_IN.put("punch", 4);
+        BUILT_IN.put("flame", 4);
+        BUILT_IN.put("infinity", 8);
+
+        // Trident
+        BUILT_IN.put("impaling", 4);
+        BUILT_IN.put("riptide", 4);
+        BUILT_IN.put("loyalty", 4);
+        BUILT_IN.put("channeling", 8);
+
+        // Crossbow
+        BUILT_IN.put("multishot", 4);
+        BUILT_IN.put("piercing", 4);
+        BUILT_IN.put("quick_charge", 4);
+
+        // Fishing rod
+        BUILT_IN.put("luck_of_the_sea", 4);
+        BUILT_IN.put("lure", 4);
+
+        // Misc
+        BUILT_IN.put("mending", 4);
+        BUILT_IN.put("binding_curse", 8); // curses are pricey (no level ups)
+        BUILT_IN.put("vanishing_curse", 8);
+    }
+
+    private final int[] costs;
+
+    private EnchantmentCosts(int[] costs) {
+        this.costs = costs;
+    }
+
+    int cost(int id) {
+        return costs[id];
+    }
+
+    static EnchantmentCosts load(EnchantmentIndex index, ConfigurationSection overrides, Logger logger) {
+        int n = index.size();
+        int[] costs = new int[n];
+        Map<String, Integer> ids = new HashMap<>(n * 2);
+        for (int id = 0; id < n; id++) {
+            Enchantment ench = index.byId(id);
+            NamespacedKey key = ench.getKey();
+            ids.put(key.asString(), id);
+            Integer builtIn = NamespacedKey.MINECRAFT.equals(key.getNamespace()) ? BUILT_IN.get(key.getKey()) : null;
+            costs[id] = builtIn != null ? builtIn : registryCost(ench);
+        }
+        if (overrides != null) {
+            for (String name : overrides.getKeys(false)) {
+                NamespacedKey key = NamespacedKey.fromString(name.toLowerCase(Locale.ROOT));
+                Integer id = key != null ? ids.get(key.asString()) : null;
+                if (id == null) {
+                    logger.warning("enchantment-costs: unknown enchantment '" + name + "'");
+                    continue;
+                }
+                int cost = overrides.getInt(name, -1);
+                if (cost < 1) {
+                    logger.warning("enchantment-costs: cost for '" + name + "' must be a positive integer");
+                    continue;
+                }
+                costs[id] = cost;
+            }
+        }
+        return new EnchantmentCosts(costs);
+    }
+
+    private static int registryCost(Enchantment ench) {
+        try {
+            return Math.max(1, ench.getAnvilCost());
+        } catch (Throwable ignored) {
+            // Older API without data-driven enchantments
+            return 1;
+        }
+    }
+}
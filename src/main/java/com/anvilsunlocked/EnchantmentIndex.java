@@ -0,0 +1,131 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Material;
+import org.bukkit.Registry;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Dense int ids for the server's enchantments (including datapack ones), so
+ * snapshots and the engine can work with plain int arrays.
+ * Max levels, pairwise conflicts and which enchantments apply to each item
+ * type are resolved into a snapshot at build time; a conflict or
+ * applicability check is a single bit test. Conflicts and applicability come
+ * from datapack tags, so {@link #rebuild()} re-resolves them and swaps the
+ * snapshot whole. The ids themselves only change with a restart.
+ */
+final class EnchantmentIndex {
+    private static final Material[] MATERIALS = Material.values();
+
+    // Derived from the enchantment definitions; immutable, replaced by rebuild()
+    private static final class Snapshot {
+        final int[] maxLevels;
+        // Row a, bit b set when a conflicts with b
+        final long[] conflicts;
+        // By material ordinal, bit id set when the enchantment applies; null for non-items
+        final long[][] applicable;
+
+        Snapshot(Enchantment[] byId, int words) {
+            int n = byId.length;
+            maxLevels = new int[n];
+            conflicts = new long[n * words];
+            for (int a = 0; a < n; a++) {
+                maxLevels[a] = byId[a].getMaxLevel();
+                for (int b = 0; b < n; b++) {
+                    if (a != b && byId[a].conflictsWith(byId[b]))
+                        conflicts[a * words + (b >>> 6)] |= 1L << b;
+                }
+            }
+            applicable = new long[MATERIALS.length][];
+            for (Material m : MATERIALS) {
+                if (!m.isItem() || m.isLegacy() || m.isAir())
+                    continue;
+                ItemStack probe = new ItemStack(m);
+                long[] row = new long[words];
+                for (int id = 0; id < n; id++) {
+                    if (byId[id].canEnchantItem(probe))
+                        row[id >>> 6] |= 1L << id;
+                }
+                applicable[m.ordinal()] = row;
+            }
+        }
+    }
+
+    private final Enchantment[] byId;
+    private final Map<Enchantment, Integer> ids;
+    private final int words;
+    private volatile Snapshot snapshot;
+
+    private EnchantmentIndex(Enchantment[] byId) {
+        int n = byId.length;
+        this.byId = byId;
+        this.ids = new HashMap<>(n * 2);
+        this.words = (n + 63) >>> 6;
+        for (int a = 0; a < n; a++) {
+            ids.put(byId[a], a);
+        }
+        this.snapshot = new Snapshot(byId, words);
+    }
+
+    static EnchantmentIndex fromRegistry() {
+        return new EnchantmentIndex(registry().toArray(new Enchantment[0]));
+    }
+
+    private static List<Enchantment> registry() {
+        List<Enchantment> all = new ArrayList<>();
+        for (Enchantment ench : Registry.ENCHANTMENT) {
+            all.add(ench);
+        }
+        return all;
+    }
+
+    /**
+     * Re-resolves conflicts and applicability after a datapack reload.
+     *
+     * @return false when the registry no longer holds the same enchantments,
+     *         which needs a restart; the ids and snapshot then stay as they were
+     */
+    boolean rebuild() {
+        List<Enchantment> all = registry();
+        if (all.size() != byId.length)
+            return false;
+        for (Enchantment ench : all) {
+            if (!ids.containsKey(ench))
+                return false;
+        }
+        snapshot = new Snapshot(byId, words);
+        return true;
+    }
+
+    int size() {
+        return byId.length;
+    }
+
+    // -1 for enchantments the registry did not know about
+    int idOf(Enchantment ench) {
+        Integer id = ids.get(ench);
+        return id != null ? id : -1;
+    }
+
+    Enchantment byId(int id) {
+        return byId[id];
+    }
+
+    int maxLevel(int id) {
+        return snapshot.maxLevels[id];
+    }
+
+    boolean conflicts(int a, int b) {
+        return (snapshot.conflicts[a * words + (b >>> 6)] & (1L << b)) != 0;
+    }
+
+    boolean canApply(int id, int material) {
+        long[] row = snapshot.applicable[material];
+        return row != null && (row[id >>> 6] & (1L << id)) != 0;
+    }
+}
@@ -0,0 +1,48 @@
+package com.anvilsunlocked;
+
+import java.util.logging.Logger;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+import com.destroystokyo.paper.event.server.ServerResourcesReloadedEvent;
+
+/**
+ * Keeps the {@link EnchantmentIndex} snapshot in step with datapacks: after
+ * {@code /minecraft:reload} the enchantment tags (exclusive sets, supported
+ * items) may have changed, so conflicts and applicability are re-resolved and
+ * cached results computed against the old ones are dropped. Policies read
+ * everything they do not override through to the index, so they follow too;
+ * a recording in progress rolls over to a file with the new rules.
+ */
+final class EnchantmentReloadListener implements Listener {
+    private final EnchantmentIndex enchantIndex;
+    private final AnvilResultCache resultCache;
+    private final AnvilRecorder recorder;
+    private final Logger logger;
+
+    EnchantmentReloadListener(EnchantmentIndex enchantIndex, AnvilResultCache resultCache, AnvilRecorder recorder,
+            Logger logger) {
+        this.enchantIndex = enchantIndex;
+        this.resultCache = resultCache;
+        this.recorder = recorder;
+        this.logger = logger;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onResourcesReloaded(ServerResourcesReloadedEvent event) {
+        recorder.aroundRulesChange("Datapacks reloaded", this::rebuild);
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        if (!enchantIndex.rebuild()) {
+            logger.warning("The enchantment registry changed; restart the server for AnvilsUnlocked to pick it up");
+            return;
+        }
+        // Also invalidates the last result each open anvil remembers
+        resultCache.clear();
+        logger.info("Rebuilt the enchantment snapshot in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
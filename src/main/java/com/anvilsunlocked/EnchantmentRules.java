@@ -0,0 +1,19 @@
+package com.anvilsunlocked;
+
+/**
+ * Enchantment facts the engine needs, addressed by dense enchantment id and
+ * Material ordinal so implementations can be backed by plain arrays.
+ */
+interface EnchantmentRules {
+    // Number of dense ids; ids run from 0 to size() - 1
+    int size();
+
+    int maxLevel(int id);
+
+    // Per-level anvil cost multiplier
+    int baseCost(int id);
+
+    boolean conflicts(int a, int b);
+
+    boolean canApply(int id, int material);
+}
@@ -0,0 +1,108 @@
+package com.anvilsunlocked;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.kyori.adventure.text.Component;
+
+/**
+ * Immutable, Bukkit-free view of a single anvil input.
+ * Captured once per prepare (see {@link ItemSnapshots}) so the engine never
+ * has to go back to {@code ItemMeta}.
+ */
+final class ItemSnapshot {
+    static final int[] NO_ENCHANTS = new int[0];
+
+    final int material; // Material ordinal
+    final int amount;
+    final int maxDurability;
+    final boolean damageable;
+    final int damage;
+    final int repairUses;
+    // Enchanted books keep their enchants in the stored-enchant list
+    final boolean storesEnchants;
+    // Parallel arrays: dense enchantment id -> level
+    final int[] enchantIds;
+    final int[] enchantLevels;
+    // null when the item has no custom name
+    final Component displayName;
+    // Text of displayName when it is plain (no style or children), else null
+    final String plainName;
+    private int hash;
+
+    ItemSnapshot(int material, int amount, int maxDurability, boolean damageable, int damage, int repairUses,
+            boolean storesEnchants, int[] enchantIds, int[] enchantLevels, Component displayName) {
+        this.material = material;
+        this.amount = amount;
+        this.maxDurability = maxDurability;
+        this.damageable = damageable;
+        this.damage = damage;
+        this.repairUses = repairUses;
+        this.storesEnchants = storesEnchants;
+        this.enchantIds = enchantIds;
+        this.enchantLevels = enchantLevels;
+        this.displayName = displayName;
+        this.plainName = Names.plain(displayName);
+    }
+
+    // The output an engine result produces from this item as the left input
+    ItemSnapshot apply(AnvilResult result) {
+        if (result.isEmpty())
+            return this;
+        return new ItemSnapshot(material, amount, maxDurability, damageable,
+                result.damage >= 0 ? result.damage : damage, result.repairUses >= 0 ? result.repairUses : repairUses,
+                storesEnchants, result.enchantIds != null ? result.enchantIds : enchantIds,
+                result.enchantIds != null ? result.enchantLevels : enchantLevels,
+                result.rename != null ? Names.text(result.rename) : displayName);
+    }
+
+    int enchantCount() {
+        return enchantIds.length;
+    }
+
+    // Level of the given enchantment, 0 if absent
+    int levelOf(int id) {
+        for (int i = 0; i < enchantIds.length; i++) {
+            if (enchantIds[i] == id)
+                return enchantLevels[i];
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ItemSnapshot other))
+            return false;
+        return material == other.material && amount == other.amount && damage == other.damage
+                && repairUses == other.repairUses && damageable == other.damageable
+                && storesEnchants == other.storesEnchants && maxDurability == other.maxDurability
+                && Arrays.equals(enchantIds, other.enchantIds) && Arrays.equals(enchantLevels, other.enchantLevels)
+                && sameName(other);
+    }
+
+    // Plain names compare as strings; only styled ones need the component tree
+    private boolean sameName(ItemSnapshot other) {
+        if (plainName != null || other.plainName != null)
+            return Objects.equals(plainName, other.plainName);
+        return Objects.equals(displayName, other.displayName);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = material;
+            h = 31 * h + amount;
+            h = 31 * h + damage;
+            h = 31 * h + repairUses;
+            h = 31 * h + (storesEnchants ? 1 : 0);
+            h = 31 * h + Arrays.hashCode(enchantIds);
+            h = 31 * h + Arrays.hashCode(enchantLevels);
+            h = 31 * h + (plainName != null ? plainName.hashCode() : Objects.hashCode(displayName));
+            hash = h;
+        }
+        return h;
+    }
+}
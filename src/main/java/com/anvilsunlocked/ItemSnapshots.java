@@ -0,0 +1,57 @@
+package com.anvilsunlocked;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * Captures {@link ItemSnapshot}s from Bukkit stacks, reading the meta once.
+ */
+final class ItemSnapshots {
+    private ItemSnapshots() {
+    }
+
+    static ItemSnapshot capture(ItemStack stack, EnchantmentIndex index) {
+        ItemMeta meta = stack.getItemMeta();
+        int material = stack.getType().ordinal();
+        int maxDurability = stack.getType().getMaxDurability();
+        if (meta == null) {
+            return new ItemSnapshot(material, stack.getAmount(), maxDurability, false, 0, 0, false,
+                    ItemSnapshot.NO_ENCHANTS, ItemSnapshot.NO_ENCHANTS, null);
+        }
+
+        boolean damageable = meta instanceof Damageable;
+        int damage = meta instanceof Damageable dm ? dm.getDamage() : 0;
+
+        boolean stores = meta instanceof EnchantmentStorageMeta;
+        Map<Enchantment, Integer> enchants = meta instanceof EnchantmentStorageMeta esm ? esm.getStoredEnchants()
+                : meta.getEnchants();
+        int[] ids = ItemSnapshot.NO_ENCHANTS;
+        int[] levels = ItemSnapshot.NO_ENCHANTS;
+        if (!enchants.isEmpty()) {
+            ids = new int[enchants.size()];
+            levels = new int[enchants.size()];
+            int n = 0;
+            for (Map.Entry<Enchantment, Integer> e : enchants.entrySet()) {
+                int id = index.idOf(e.getKey());
+                if (id < 0 || e.getValue() <= 0)
+                    continue;
+                ids[n] = id;
+                levels[n] = e.getValue();
+                n++;
+            }
+            if (n != ids.length) {
+                ids = Arrays.copyOf(ids, n);
+                levels = Arrays.copyOf(levels, n);
+            }
+        }
+
+        return new ItemSnapshot(material, stack.getAmount(), maxDurability, damageable, damage,
+                RepairUses.read(meta), stores, ids, levels, meta.hasDisplayName() ? meta.displayName() : null);
+    }
+}
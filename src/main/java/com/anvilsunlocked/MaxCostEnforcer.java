@@ -0,0 +1,82 @@
+package com.anvilsunlocked;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.view.AnvilView;
+
+/**
+ * Re-applies the unbounded maximum repair cost one tick after prepare/open, in
+ * case another plugin clamped it after us.
+ * Views are marked dirty and fixed at most once per tick each: on Paper by a
+ * single repeating task, on Folia by one coalesced task per player on the
+ * player's own region thread.
+ */
+final class MaxCostEnforcer {
+    private final AnvilScheduler scheduler;
+    // At most one open anvil per player, so keying by player deduplicates
+    private final Map<UUID, AnvilView> dirty = new ConcurrentHashMap<>();
+    private final LongAdder corrections = new LongAdder();
+
+    MaxCostEnforcer(AnvilScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    void start() {
+        if (!AnvilScheduler.isFolia())
+            scheduler.runEveryTick(this::flushAll);
+    }
+
+    void markDirty(HumanEntity player, AnvilView view) {
+        UUID id = player.getUniqueId();
+        if (dirty.put(id, view) == null && AnvilScheduler.isFolia())
+            scheduler.runNextTick(player, () -> flush(id));
+    }
+
+    void forget(HumanEntity player) {
+        dirty.remove(player.getUniqueId());
+    }
+
+    // Number of times a view was found clamped and had to be fixed
+    long corrections() {
+        return corrections.sum();
+    }
+
+    void resetCounters() {
+        corrections.reset();
+    }
+
+    int pending() {
+        return dirty.size();
+    }
+
+    private void flushAll() {
+        if (dirty.isEmpty())
+            return;
+        for (Iterator<AnvilView> it = dirty.values().iterator(); it.hasNext();) {
+            AnvilView view = it.next();
+            it.remove();
+            enforce(view);
+        }
+    }
+
+    private void flush(UUID id) {
+        AnvilView view = dirty.remove(id);
+        if (view != null)
+            enforce(view);
+    }
+
+    private void enforce(AnvilView view) {
+        try {
+            if (view.getMaximumRepairCost() < Integer.MAX_VALUE) {
+                view.setMaximumRepairCost(Integer.MAX_VALUE);
+                corrections.increment();
+            }
+        } catch (Throwable ignored) {
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.anvilsunlocked;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans a bulk merge of many anvil inputs into as few items as possible,
+ * Bukkit-free on top of {@link AnvilEngine}. Only lossless merges are
+ * considered: every enchantment of both inputs must survive at its level or
+ * higher.
+ * - Greedy: each round merges the pair with the lowest cost plus the
+ * prior-work penalty the merged item will carry, which keeps the combination
+ * tree balanced the way {@link AnvilEngine#priorWorkPenalty} rewards
+ * - Optimal: dynamic programming over subsets of up to {@value #MAX_EXACT}
+ * inputs, under a time budget; falls back to the greedy plan
+ * Under an {@link AnvilPolicy} every step is costed as the policy charges it,
+ * and steps it refuses (banned pairs, over its cap) are not possible, so the
+ * plan routes around them or leaves those items separate.
+ */
+final class MergePlanner {
+    /**
+     * Nodes 0..leaves-1 are the inputs; step k creates node leaves+k from
+     * stepLeft[k] (left slot) and stepRight[k] (right slot).
+     */
+    static final class Plan {
+        final int leaves;
+        final int[] stepLeft;
+        final int[] stepRight;
+        final AnvilResult[] stepResult;
+        final int totalCost;
+        // Nodes not consumed by any step, i.e. the items left afterwards
+        final int[] survivors;
+        // Proven cheapest, as opposed to the greedy fallback
+        final boolean optimal;
+
+        Plan(int leaves, int[] stepLeft, int[] stepRight, AnvilResult[] stepResult, int totalCost,
+                int[] survivors, boolean optimal) {
+            this.leaves = leaves;
+            this.stepLeft = stepLeft;
+            this.stepRight = stepRight;
+            this.stepResult = stepResult;
+            this.totalCost = totalCost;
+            this.survivors = survivors;
+            this.optimal = optimal;
+        }
+
+        int steps() {
+            return stepResult.length;
+        }
+
+        Plan proven() {
+            return new Plan(leaves, stepLeft, stepRight, stepResult, totalCost, survivors, true);
+        }
+    }
+
+    // Subset DP is 3^n splits; beyond this only the greedy plan is used
+    static final int MAX_EXACT = 12;
+
+    // A merged (or input) item in the subset DP
+    private static final class Node {
+        final ItemSnapshot item;
+        final int cost;
+        final Node left;
+        final Node right;
+        final AnvilResult result;
+        int id;
+
+        Node(ItemSnapshot item, int leaf) {
+            this.item = item;
+            this.cost = 0;
+            this.left = null;
+            this.right = null;
+            this.result = null;
+            this.id = leaf;
+        }
+
+        Node(Node left, Node right, AnvilResult result, int cost) {
+            this.item = left.item.apply(result);
+            this.cost = cost;
+            this.left = left;
+            this.right = right;
+            this.result = result;
+        }
+    }
+
+    private final AnvilEngine engine;
+    // Applied to every step; null for the plain engine
+    private final AnvilPolicy policy;
+
+    MergePlanner(AnvilEngine engine) {
+        this(engine, null);
+    }
+
+    MergePlanner(AnvilPolicy policy) {
+        this(policy.engine, policy);
+    }
+
+    private MergePlanner(AnvilEngine engine, AnvilPolicy policy) {
+        this.engine = engine;
+        this.policy = policy;
+    }
+
+    // One merge as the player would pay for it; NONE when not allowed
+    private AnvilResult step(ItemSnapshot left, ItemSnapshot right) {
+        AnvilResult r = engine.compute(left, right, null);
+        return policy != null ? policy.apply(r) : r;
+    }
+
+    // Least a step can cost whose inputs carry these prior-work penalties
+    private int floorCost(int penalties) {
+        return policy != null ? policy.scaleCost(penalties) : penalties;
+    }
+
+    /**
+     * @param items inputs
+     * @param root  index of the item that must stay in the left slot (the
+     *              enchant target), or -1 when any item may go right
+     */
+    Plan greedy(List<ItemSnapshot> items, int root) {
+        List<ItemSnapshot> nodes = new ArrayList<>(items);
+        List<Integer> active = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            active.add(i);
+        }
+        List<int[]> pairs = new ArrayList<>();
+        List<AnvilResult> results = new ArrayList<>();
+        int total = 0;
+        while (active.size() > 1) {
+            int bestLeft = -1;
+            int bestRight = -1;
+            AnvilResult best = null;
+            long bestScore = Long.MAX_VALUE;
+            for (int a : active) {
+                for (int b : active) {
+                    if (a == b || b == root)
+                        continue;
+                    ItemSnapshot left = nodes.get(a);
+                    ItemSnapshot right = nodes.get(b);
+                    AnvilResult r = step(left, right);
+                    if (!lossless(left, right, r))
+                        continue;
+                    long score = (long) r.cost + AnvilEngine.priorWorkPenalty(r.repairUses);
+                    if (score < bestScore || score == bestScore && r.cost < best.cost) {
+                        bestScore = score;
+                        best = r;
+                        bestLeft = a;
+                        bestRight = b;
+                    }
+                }
+            }
+            if (best == null)
+                break;
+            int merged = nodes.size();
+            nodes.add(nodes.get(bestLeft).apply(best));
+            pairs.add(new int[] { bestLeft, bestRight });
+            results.add(best);
+            total += best.cost;
+            active.remove(Integer.valueOf(bestLeft));
+            active.remove(Integer.valueOf(bestRight));
+            active.add(merged);
+            if (bestLeft == root)
+                root = merged;
+        }
+        int steps = results.size();
+        int[] stepLeft = new int[steps];
+        int[] stepRight = new int[steps];
+        for (int k = 0; k < steps; k++) {
+            stepLeft[k] = pairs.get(k)[0];
+            stepRight[k] = pairs.get(k)[1];
+        }
+        int[] survivors = active.stream().mapToInt(Integer::intValue).toArray();
+        return new Plan(items.size(), stepLeft, stepRight, results.toArray(new AnvilResult[0]), total, survivors,
+                false);
+    }
+
+    /**
+     * Cheapest way to merge all inputs into one item. Subsets are solved in
+     * increasing mask order (every split of a mask is numerically smaller),
+     * keeping per subset only the Pareto front of (total cost, prior work
+     * uses) since a cheaper but more-worked item can still lose later. The
+     * greedy total bounds the search.
+     *
+     * @param budgetNanos wall time allowed before giving up on the exact plan
+     */
+    Plan optimal(List<ItemSnapshot> items, int root, long budgetNanos) {
+        Plan greedy = greedy(items, root);
+        int n = items.size();
+        if (n < 2 || n > MAX_EXACT)
+            return greedy;
+        // Elapsed rather than a deadline, which would overflow for huge budgets
+        long start = System.nanoTime();
+        // Only strictly cheaper trees are worth finding
+        int bound = greedy.survivors.length == 1 ? greedy.totalCost : Integer.MAX_VALUE;
+        int rootBit = root >= 0 ? 1 << root : 0;
+        int full = (1 << n) - 1;
+        Node[][] fronts = new Node[full + 1][];
+        for (int i = 0; i < n; i++) {
+            fronts[1 << i] = new Node[] { new Node(items.get(i), i) };
+        }
+        int ops = 0;
+        List<Node> front = new ArrayList<>();
+        for (int mask = 3; mask <= full; mask++) {
+            if (Integer.bitCount(mask) < 2)
+                continue;
+            front.clear();
+            for (int a = (mask - 1) & mask; a > 0; a = (a - 1) & mask) {
+                int b = mask ^ a;
+                // The target never goes in the right slot
+                if ((b & rootBit) != 0)
+                    continue;
+                Node[] lefts = fronts[a];
+                Node[] rights = fronts[b];
+                if (lefts == null || rights == null)
+                    continue;
+                for (Node x : lefts) {
+                    for (Node y : rights) {
+                        // Both penalties are part of the merge cost, so this is a lower bound
+                        long floor = (long) x.cost + y.cost + floorCost(AnvilEngine.priorWorkPenalty(x.item.repairUses)
+                                + AnvilEngine.priorWorkPenalty(y.item.repairUses));
+                        if (floor >= bound)
+                            continue;
+                        if ((++ops & 255) == 0 && System.nanoTime() - start > budgetNanos)
+                            return greedy;
+                        AnvilResult r = step(x.item, y.item);
+                        if (!lossless(x.item, y.item, r))
+                            continue;
+                        int cost = x.cost + y.cost + r.cost;
+                        if (cost >= bound)
+                            continue;
+                        insert(front, new Node(x, y, r, cost));
+                    }
+                }
+            }
+            fronts[mask] = front.isEmpty() ? null : front.toArray(new Node[0]);
+        }
+        Node best = null;
+        if (fronts[full] != null) {
+            for (Node node : fronts[full]) {
+                if (best == null || node.cost < best.cost)
+                    best = node;
+            }
+        }
+        if (best != null)
+            return toPlan(best, n);
+        // Search finished without beating it, so the greedy plan is the cheapest
+        return greedy.survivors.length == 1 ? greedy.proven() : greedy;
+    }
+
+    // Adds node unless dominated; drops the nodes it dominates. Only items with
+    // the same enchant levels compare, equal-level merges can differ by tree
+    private static void insert(List<Node> front, Node node) {
+        int uses = node.item.repairUses;
+        for (int i = front.size() - 1; i >= 0; i--) {
+            Node other = front.get(i);
+            if (!sameEnchants(other.item, node.item))
+                continue;
+            int otherUses = other.item.repairUses;
+            if (other.cost <= node.cost && otherUses <= uses)
+                return;
+            if (node.cost <= other.cost && uses <= otherUses)
+                front.remove(i);
+        }
+        front.add(node);
+    }
+
+    private static boolean sameEnchants(ItemSnapshot a, ItemSnapshot b) {
+        if (a.enchantCount() != b.enchantCount())
+            return false;
+        for (int i = 0; i < a.enchantCount(); i++) {
+            if (b.levelOf(a.enchantIds[i]) != a.enchantLevels[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static Plan toPlan(Node top, int leaves) {
+        List<Node> steps = new ArrayList<>();
+        collect(top, steps);
+        int count = steps.size();
+        int[] stepLeft = new int[count];
+        int[] stepRight = new int[count];
+        AnvilResult[] stepResult = new AnvilResult[count];
+        for (int k = 0; k < count; k++) {
+            Node step = steps.get(k);
+            step.id = leaves + k;
+            stepLeft[k] = step.left.id;
+            stepRight[k] = step.right.id;
+            stepResult[k] = step.result;
+        }
+        return new Plan(leaves, stepLeft, stepRight, stepResult, top.cost, new int[] { top.id }, true);
+    }
+
+    // Post-order, so both inputs of a step come before it
+    private static void collect(Node node, List<Node> steps) {
+        if (node.left == null)
+            return;
+        collect(node.left, steps);
+        collect(node.right, steps);
+        steps.add(node);
+    }
+
+    // A real enchant merge that drops nothing from either side
+    static boolean lossless(ItemSnapshot left, ItemSnapshot right, AnvilResult r) {
+        if (r.isEmpty() || r.enchantIds == null || r.kind == AnvilResult.Kind.UNIT_REPAIR)
+            return false;
+        return covers(r, left) && covers(r, right);
+    }
+
+    private static boolean covers(AnvilResult r, ItemSnapshot item) {
+        for (int i = 0; i < item.enchantCount(); i++) {
+            if (levelOf(r, item.enchantIds[i]) < item.enchantLevels[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int levelOf(AnvilResult r, int id) {
+        for (int i = 0; i < r.enchantIds.length; i++) {
+            if (r.enchantIds[i] == id)
+                return r.enchantLevels[i];
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,38 @@
+package com.anvilsunlocked;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+
+/**
+ * Rename text as Adventure components, without building one per prepare.
+ * Plain names (text only, no style or children) are compared as strings;
+ * components for rename text come from a small direct-mapped intern table,
+ * so re-prepares of the same text share one instance.
+ */
+final class Names {
+    private static final int SLOTS = 256;
+
+    // Racy by design: components are immutable, a lost store only costs a rebuild
+    private static final TextComponent[] INTERNED = new TextComponent[SLOTS];
+
+    private Names() {
+    }
+
+    // Equal to Component.text(text), shared while the slot is not reused
+    static TextComponent text(String text) {
+        int slot = text.hashCode() & (SLOTS - 1);
+        TextComponent c = INTERNED[slot];
+        if (c != null && c.content().equals(text))
+            return c;
+        c = Component.text(text);
+        INTERNED[slot] = c;
+        return c;
+    }
+
+    // The text of a name Component.text could have built, else null
+    static String plain(Component name) {
+        if (name instanceof TextComponent text && text.children().isEmpty() && text.style().isEmpty())
+            return text.content();
+        return null;
+    }
+}
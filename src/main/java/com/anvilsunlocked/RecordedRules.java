@@ -0,0 +1,90 @@
+package com.anvilsunlocked;
+
+import java.util.BitSet;
+
+/**
+ * Enchantment and repair rules as captured in a {@link WorkloadLog}, so a
+ * replay computes with exactly the tables the server had, without the server.
+ * Materials the log never described apply no enchantments and have no repair
+ * materials.
+ */
+final class RecordedRules implements EnchantmentRules, RepairRules {
+    private static final BitSet NONE = new BitSet();
+
+    private final String[] keys;
+    private final int[] maxLevels;
+    private final int[] baseCosts;
+    private final BitSet[] conflicts;
+    // By Material ordinal at recording time
+    private final String[] materialNames;
+    private final BitSet[] applies;
+    private final BitSet[] repairs;
+    private int materials;
+
+    RecordedRules(String[] keys, int[] maxLevels, int[] baseCosts, BitSet[] conflicts, int materialCount) {
+        this.keys = keys;
+        this.maxLevels = maxLevels;
+        this.baseCosts = baseCosts;
+        this.conflicts = conflicts;
+        this.materialNames = new String[materialCount];
+        this.applies = new BitSet[materialCount];
+        this.repairs = new BitSet[materialCount];
+    }
+
+    void putMaterial(int material, String name, BitSet applies, BitSet repairs) {
+        if (materialNames[material] == null)
+            materials++;
+        this.materialNames[material] = name;
+        this.applies[material] = applies;
+        this.repairs[material] = repairs;
+    }
+
+    String key(int id) {
+        return keys[id];
+    }
+
+    String materialName(int material) {
+        String name = material < materialNames.length ? materialNames[material] : null;
+        return name != null ? name : "#" + material;
+    }
+
+    // Item types described so far
+    int materials() {
+        return materials;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public int maxLevel(int id) {
+        return maxLevels[id];
+    }
+
+    @Override
+    public int baseCost(int id) {
+        return baseCosts[id];
+    }
+
+    @Override
+    public boolean conflicts(int a, int b) {
+        return conflicts[a].get(b);
+    }
+
+    @Override
+    public boolean canApply(int id, int material) {
+        return row(applies, material).get(id);
+    }
+
+    @Override
+    public boolean isRepairMaterial(int item, int material) {
+        return row(repairs, item).get(material);
+    }
+
+    private static BitSet row(BitSet[] rows, int material) {
+        BitSet row = material < rows.length ? rows[material] : null;
+        return row != null ? row : NONE;
+    }
+}
@@ -0,0 +1,110 @@
+package com.anvilsunlocked;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Unit-material repair table (diamonds for diamond gear, planks for wooden
+ * tools, membranes for elytra, ...), built once from the Material enum plus
+ * any extra pairs from config. Lookups are an array index and an EnumSet bit
+ * test.
+ */
+final class RepairMaterials implements RepairRules {
+    private static final Material[] MATERIALS = Material.values();
+
+    private final Map<Material, EnumSet<Material>> table;
+
+    private RepairMaterials(Map<Material, EnumSet<Material>> table) {
+        this.table = table;
+    }
+
+    @Override
+    public boolean isRepairMaterial(int item, int material) {
+        EnumSet<Material> valid = table.get(MATERIALS[item]);
+        return valid != null && valid.contains(MATERIALS[material]);
+    }
+
+    /**
+     * Vanilla pairs, extended by the {@code repair-materials} config section
+     * (item name -> list of material names).
+     */
+    static RepairMaterials load(ConfigurationSection extra, Logger logger) {
+        Map<Material, EnumSet<Material>> table = vanilla();
+        if (extra != null) {
+            for (String itemName : extra.getKeys(false)) {
+                Material item = Material.matchMaterial(itemName);
+                if (item == null) {
+                    logger.warning("repair-materials: unknown item '" + itemName + "'");
+                    continue;
+                }
+                for (String materialName : extra.getStringList(itemName)) {
+                    Material material = Material.matchMaterial(materialName);
+                    if (material == null) {
+                        logger.warning("repair-materials: unknown material '" + materialName + "' for " + item);
+                        continue;
+                    }
+                    table.computeIfAbsent(item, k -> EnumSet.noneOf(Material.class)).add(material);
+                }
+            }
+        }
+        return new RepairMaterials(table);
+    }
+
+    private static Map<Material, EnumSet<Material>> vanilla() {
+        EnumSet<Material> planks = EnumSet.noneOf(Material.class);
+        for (Material m : MATERIALS) {
+            if (m.name().endsWith("_PLANKS"))
+                planks.add(m);
+        }
+        EnumSet<Material> stones = EnumSet.of(Material.COBBLESTONE, Material.COBBLED_DEEPSLATE, Material.BLACKSTONE);
+
+        // Every item gets its own set so config extensions never leak across items
+        Map<Material, EnumSet<Material>> table = new EnumMap<>(Material.class);
+        for (Material m : MATERIALS) {
+            // Only damageable items can be unit-repaired
+            if (m.getMaxDurability() <= 0 || m.name().startsWith("LEGACY_"))
+                continue;
+            String n = m.name();
+            if (n.startsWith("LEATHER_"))
+                table.put(m, EnumSet.of(Material.LEATHER));
+            else if (n.startsWith("CHAINMAIL_") || n.startsWith("IRON_"))
+                table.put(m, EnumSet.of(Material.IRON_INGOT));
+            else if (n.startsWith("WOODEN_") || m == Material.SHIELD)
+                table.put(m, EnumSet.copyOf(planks));
+            else if (n.startsWith("STONE_"))
+                table.put(m, EnumSet.copyOf(stones));
+            else if (n.startsWith("GOLDEN_"))
+                table.put(m, EnumSet.of(Material.GOLD_INGOT));
+            else if (n.startsWith("DIAMOND_"))
+                table.put(m, EnumSet.of(Material.DIAMOND));
+            else if (n.startsWith("NETHERITE_"))
+                table.put(m, EnumSet.of(Material.NETHERITE_INGOT));
+        }
+
+        // Items with their own repair material; resolved by name to stay
+        // tolerant of renames between versions (SCUTE -> TURTLE_SCUTE)
+        put(table, Material.ELYTRA, "PHANTOM_MEMBRANE");
+        put(table, Material.TURTLE_HELMET, "TURTLE_SCUTE");
+        put(table, Material.TURTLE_HELMET, "SCUTE");
+        put(table, Material.matchMaterial("WOLF_ARMOR"), "ARMADILLO_SCUTE");
+        put(table, Material.matchMaterial("MACE"), "BREEZE_ROD");
+        return table;
+    }
+
+    private static void put(Map<Material, EnumSet<Material>> table, Material item, String materialName) {
+        Material material = Material.getMaterial(materialName);
+        if (item == null || material == null)
+            return;
+        EnumSet<Material> valid = table.get(item);
+        if (valid == null) {
+            table.put(item, EnumSet.of(material));
+        } else {
+            valid.add(material);
+        }
+    }
+}
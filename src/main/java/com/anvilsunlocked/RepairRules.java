@@ -0,0 +1,9 @@
+package com.anvilsunlocked;
+
+/**
+ * Unit-material repair pairs (e.g. diamonds for diamond gear), by Material
+ * ordinal.
+ */
+interface RepairRules {
+    boolean isRepairMaterial(int item, int material);
+}
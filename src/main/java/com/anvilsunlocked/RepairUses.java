@@ -0,0 +1,47 @@
+package com.anvilsunlocked;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.Repairable;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+/**
+ * Anvil prior-uses counter, tracked in PDC independent of Mending repairs and
+ * mirrored into the vanilla repair cost. Works on an already loaded meta; the
+ * caller decides when to commit it.
+ */
+final class RepairUses {
+    // Same key NamespacedKey(plugin, "anvil_uses") produced, so existing items keep their count
+    static final NamespacedKey KEY = NamespacedKey.fromString("anvilsunlocked:anvil_uses");
+
+    private RepairUses() {
+    }
+
+    static int read(ItemMeta meta) {
+        try {
+            PersistentDataContainer pdc = meta.getPersistentDataContainer();
+            Integer v = pdc.get(KEY, PersistentDataType.INTEGER);
+            if (v != null)
+                return Math.max(0, v);
+        } catch (Throwable ignored) {
+        }
+        if (meta instanceof Repairable rep) {
+            // Fallback for legacy items without our PDC marker
+            return Math.max(0, rep.getRepairCost());
+        }
+        return 0;
+    }
+
+    static void write(ItemMeta meta, int uses) {
+        int u = Math.max(0, uses);
+        try {
+            meta.getPersistentDataContainer().set(KEY, PersistentDataType.INTEGER, u);
+        } catch (Throwable ignored) {
+        }
+        if (meta instanceof Repairable rep) {
+            // Mirror for cross-plugin/vanilla compatibility
+            rep.setRepairCost(u);
+        }
+    }
+}
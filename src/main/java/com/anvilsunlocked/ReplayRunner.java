@@ -0,0 +1,171 @@
+package com.anvilsunlocked;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Headless replay of a workload recorded by {@link AnvilRecorder}: pushes
+ * every prepare through the current {@link AnvilEngine} with the rules stored
+ * in the log, at full speed and without a server or client.
+ * Reports throughput, the per-prepare latency distribution and every result
+ * that differs from what the recording server produced; exits with status 1
+ * when there are differences, so it can gate a build.
+ * Usage: {@code ReplayRunner <log> [--passes N] [--diffs N]}, or
+ * {@code ./gradlew replay --args="<log>"}.
+ */
+public final class ReplayRunner {
+    private static final int DEFAULT_PASSES = 5;
+    private static final int DEFAULT_DIFFS = 20;
+
+    // Keeps the JIT from discarding results in the untimed passes
+    private static volatile long sink;
+
+    private ReplayRunner() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ReplayRunner <log> [--passes N] [--diffs N]");
+            System.exit(2);
+        }
+        String path = args[0];
+        int passes = DEFAULT_PASSES;
+        int maxDiffs = DEFAULT_DIFFS;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--passes" -> passes = Math.max(1, Integer.parseInt(args[i + 1]));
+                case "--diffs" -> maxDiffs = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        // Load everything first so the passes measure the engine, not the disk
+        WorkloadLog.Reader reader;
+        List<WorkloadLog.Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            reader = new WorkloadLog.Reader(in);
+            for (WorkloadLog.Entry e; (e = reader.next()) != null;) {
+                entries.add(e);
+            }
+        }
+        RecordedRules rules = reader.rules();
+        AnvilEngine engine = new AnvilEngine(rules, rules);
+        System.out.println("Replaying " + path + ": " + entries.size() + " prepares, " + rules.size()
+                + " enchantments, " + rules.materials() + " item types");
+        if (entries.isEmpty())
+            return;
+
+        // First pass doubles as warm-up and as the comparison with the recording
+        int diffs = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            WorkloadLog.Entry e = entries.get(i);
+            AnvilResult now = engine.compute(e.left, e.right, e.renameText);
+            if (same(e.result, now))
+                continue;
+            if (diffs++ < maxDiffs) {
+                String inputs = rules.materialName(e.left.material)
+                        + (e.right != null ? " + " + rules.materialName(e.right.material) : "");
+                System.out.println("  #" + i + " (" + inputs + "): recorded " + describe(rules, e.result) + ", now "
+                        + describe(rules, now));
+            }
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < passes; pass++) {
+            long start = System.nanoTime();
+            long acc = 0;
+            for (WorkloadLog.Entry e : entries) {
+                acc += engine.compute(e.left, e.right, e.renameText).cost;
+            }
+            long elapsed = System.nanoTime() - start;
+            sink = acc;
+            best = Math.min(best, elapsed);
+            System.out.println("Pass " + (pass + 1) + ": " + opsPerSecond(entries.size(), elapsed) + " prepares/s");
+        }
+        System.out.println("Throughput: " + opsPerSecond(entries.size(), best) + " prepares/s (best pass)");
+
+        // Separate pass: timing every call costs more than some calls themselves
+        LatencyHistogram latency = new LatencyHistogram();
+        long acc = 0;
+        for (WorkloadLog.Entry e : entries) {
+            long start = System.nanoTime();
+            AnvilResult r = engine.compute(e.left, e.right, e.renameText);
+            latency.record(System.nanoTime() - start);
+            acc += r.cost;
+        }
+        sink = acc;
+        System.out.println("Latency (ns): mean " + latency.mean() + ", p50 " + latency.percentile(0.50) + ", p90 "
+                + latency.percentile(0.90) + ", p99 " + latency.percentile(0.99) + ", p99.9 "
+                + latency.percentile(0.999) + ", max " + latency.max());
+
+        System.out.println("Differences from the recording: " + diffs + " of " + entries.size());
+        if (diffs > 0)
+            System.exit(1);
+    }
+
+    private static String opsPerSecond(int ops, long nanos) {
+        return String.format(Locale.ROOT, "%,.0f", ops * 1e9 / Math.max(1, nanos));
+    }
+
+    private static boolean same(AnvilResult a, AnvilResult b) {
+        if (a.kind != b.kind)
+            return false;
+        if (a.isEmpty())
+            return true;
+        return a.cost == b.cost && a.repairItemCount == b.repairItemCount && a.damage == b.damage
+                && a.repairUses == b.repairUses && Objects.equals(a.rename, b.rename)
+                && sameEnchants(a, b);
+    }
+
+    // Order-insensitive; the output item does not depend on it
+    private static boolean sameEnchants(AnvilResult a, AnvilResult b) {
+        if (a.enchantIds == null || b.enchantIds == null)
+            return a.enchantIds == b.enchantIds;
+        if (a.enchantIds.length != b.enchantIds.length)
+            return false;
+        for (int i = 0; i < a.enchantIds.length; i++) {
+            if (levelOf(b, a.enchantIds[i]) != a.enchantLevels[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int levelOf(AnvilResult r, int id) {
+        for (int i = 0; i < r.enchantIds.length; i++) {
+            if (r.enchantIds[i] == id)
+                return r.enchantLevels[i];
+        }
+        return 0;
+    }
+
+    private static String describe(RecordedRules rules, AnvilResult r) {
+        if (r.isEmpty())
+            return "NONE";
+        StringBuilder sb = new StringBuilder(r.kind.name()).append(" cost ").append(r.cost);
+        if (r.repairItemCount > 0)
+            sb.append(", ").append(r.repairItemCount).append(" units");
+        if (r.damage >= 0)
+            sb.append(", damage ").append(r.damage);
+        if (r.repairUses >= 0)
+            sb.append(", uses ").append(r.repairUses);
+        if (r.enchantIds != null) {
+            sb.append(", [");
+            for (int i = 0; i < r.enchantIds.length; i++) {
+                if (i > 0)
+                    sb.append(' ');
+                sb.append(rules.key(r.enchantIds[i])).append(' ').append(r.enchantLevels[i]);
+            }
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.anvilsunlocked;
+
+import java.util.Locale;
+
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * Turns an {@link AnvilResult} into the output stack: clones the left input,
+ * loads its meta once, runs the applicable mutations in order and commits
+ * once. Each step is timed into {@link AnvilMetrics}.
+ */
+final class ResultBuilder {
+    enum Step {
+        LOAD, // clone + getItemMeta
+        DAMAGE,
+        ENCHANTS,
+        NAME,
+        USES,
+        COMMIT; // setItemMeta
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    // Meta mutations, applied in declaration order
+    private enum Mutation {
+        DAMAGE(Step.DAMAGE) {
+            @Override
+            boolean appliesTo(AnvilResult result) {
+                return result.damage >= 0;
+            }
+
+            @Override
+            void apply(ItemMeta meta, AnvilResult result, EnchantmentIndex index) {
+                if (meta instanceof Damageable dm)
+                    dm.setDamage(result.damage);
+            }
+        },
+        ENCHANTS(Step.ENCHANTS) {
+            @Override
+            boolean appliesTo(AnvilResult result) {
+                return result.enchantIds != null;
+            }
+
+            @Override
+            void apply(ItemMeta meta, AnvilResult result, EnchantmentIndex index) {
+                // Remove only what the result dropped; add overwrites levels in place.
+                // get(Stored)Enchants returns a copy, so removing while iterating is safe
+                if (meta instanceof EnchantmentStorageMeta esm) {
+                    // For books, stored enchants
+                    for (Enchantment ench : esm.getStoredEnchants().keySet()) {
+                        if (!contains(result, index.idOf(ench)))
+                            esm.removeStoredEnchant(ench);
+                    }
+                    for (int i = 0; i < result.enchantIds.length; i++) {
+                        esm.addStoredEnchant(index.byId(result.enchantIds[i]), result.enchantLevels[i], true);
+                    }
+                } else {
+                    for (Enchantment ench : meta.getEnchants().keySet()) {
+                        if (!contains(result, index.idOf(ench)))
+                            meta.removeEnchant(ench);
+                    }
+                    for (int i = 0; i < result.enchantIds.length; i++) {
+                        meta.addEnchant(index.byId(result.enchantIds[i]), result.enchantLevels[i], true);
+                    }
+                }
+            }
+        },
+        NAME(Step.NAME) {
+            @Override
+            boolean appliesTo(AnvilResult result) {
+                return result.rename != null;
+            }
+
+            @Override
+            void apply(ItemMeta meta, AnvilResult result, EnchantmentIndex index) {
+                meta.displayName(Names.text(result.rename));
+            }
+        },
+        USES(Step.USES) {
+            @Override
+            boolean appliesTo(AnvilResult result) {
+                return result.repairUses >= 0;
+            }
+
+            @Override
+            void apply(ItemMeta meta, AnvilResult result, EnchantmentIndex index) {
+                RepairUses.write(meta, result.repairUses);
+            }
+        };
+
+        private final Step step;
+
+        Mutation(Step step) {
+            this.step = step;
+        }
+
+        abstract boolean appliesTo(AnvilResult result);
+
+        abstract void apply(ItemMeta meta, AnvilResult result, EnchantmentIndex index);
+    }
+
+    private static final Mutation[] PIPELINE = Mutation.values();
+
+    private final EnchantmentIndex index;
+    private final AnvilMetrics metrics;
+
+    ResultBuilder(EnchantmentIndex index, AnvilMetrics metrics) {
+        this.index = index;
+        this.metrics = metrics;
+    }
+
+    ItemStack build(ItemStack left, AnvilResult result) {
+        long t = System.nanoTime();
+        ItemStack out = left.clone();
+        ItemMeta meta = out.getItemMeta();
+        t = lap(Step.LOAD, t);
+        for (Mutation mutation : PIPELINE) {
+            if (!mutation.appliesTo(result))
+                continue;
+            mutation.apply(meta, result, index);
+            t = lap(mutation.step, t);
+        }
+        out.setItemMeta(meta);
+        lap(Step.COMMIT, t);
+        return out;
+    }
+
+    private long lap(Step step, long since) {
+        long now = System.nanoTime();
+        metrics.recordBuildStep(step, now - since);
+        return now;
+    }
+
+    private static boolean contains(AnvilResult result, int id) {
+        for (int i = 0; i < result.enchantIds.length; i++) {
+            if (result.enchantIds[i] == id)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package com.anvilsunlocked;
+
+import org.bukkit.craftbukkit.entity.CraftPlayer;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
+
+import net.minecraft.world.inventory.AnvilMenu;
+
+/**
+ * The server's own anvil logic, for comparing against {@link AnvilEngine}:
+ * an anvil menu that is never opened, driven directly. The only class that
+ * touches server internals (Mojang-mapped via the dev bundle), so a mapping
+ * change breaks {@link AnvilDiff} and nothing else.
+ * The menu still fires PrepareAnvilEvent; {@link #isProbe} lets our own
+ * listener stay out of it.
+ */
+final class VanillaAnvil {
+    // Bukkit view of the probe in use, so listeners can recognize its events
+    private volatile InventoryView probeView;
+
+    /**
+     * One probe menu on the player's inventory. Only one at a time; touch it
+     * on the player's thread only.
+     */
+    final class Probe {
+        private final AnvilMenu menu;
+
+        private Probe(AnvilMenu menu) {
+            this.menu = menu;
+        }
+
+        // Untimed setup; the menu recomputes on every change
+        void prepare(ItemStack left, ItemStack right, String renameText) {
+            menu.getSlot(0).set(CraftItemStack.asNMSCopy(left));
+            menu.getSlot(1).set(right != null ? CraftItemStack.asNMSCopy(right)
+                    : net.minecraft.world.item.ItemStack.EMPTY);
+            menu.setItemName(renameText);
+        }
+
+        // What a client sends as rename text when the player does not type one:
+        // the custom name, or nothing for an item that has none
+        String currentName(ItemStack item) {
+            if (!item.hasItemMeta() || !item.getItemMeta().hasDisplayName())
+                return "";
+            return CraftItemStack.asNMSCopy(item).getHoverName().getString();
+        }
+
+        // Vanilla's result for the prepared inputs, null when empty
+        ItemStack compute() {
+            menu.createResult();
+            net.minecraft.world.item.ItemStack result = menu.getSlot(2).getItem();
+            return result.isEmpty() ? null : CraftItemStack.asBukkitCopy(result);
+        }
+
+        int cost() {
+            return menu.getCost();
+        }
+
+        int repairItemCount() {
+            return menu.repairItemCountCost;
+        }
+    }
+
+    /**
+     * @throws LinkageError when the server internals do not match the dev
+     *                      bundle this was built against
+     */
+    Probe open(Player player) {
+        AnvilMenu menu = new AnvilMenu(0, ((CraftPlayer) player).getHandle().getInventory());
+        // Same as our listener: no "Too Expensive!" cut-off
+        menu.maximumRepairCost = Integer.MAX_VALUE;
+        probeView = menu.getBukkitView();
+        return new Probe(menu);
+    }
+
+    void close() {
+        probeView = null;
+    }
+
+    boolean isProbe(InventoryView view) {
+        return view == probeView;
+    }
+}
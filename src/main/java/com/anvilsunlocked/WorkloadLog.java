@@ -0,0 +1,300 @@
+package com.anvilsunlocked;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.BitSet;
+
+import net.kyori.adventure.text.Component;
+
+/**
+ * Binary format of a recorded anvil workload, Bukkit-free so a log can be
+ * replayed on any machine (see {@link ReplayRunner}).
+ * Layout: a header with the enchantment rules at recording time (keys, max
+ * levels, base costs, conflicts), then a stream of records. A material record
+ * carries the applicable enchantments and repair materials of an item type and
+ * comes before the first prepare that uses it as the left input; a prepare
+ * record carries both input snapshots, the rename text and the result the
+ * server produced. Counts and ids are varints, so a typical prepare takes a
+ * few dozen bytes.
+ */
+final class WorkloadLog {
+    static final int MAGIC = 0x41555243; // "AURC"
+    static final int VERSION = 1;
+
+    private static final int MATERIAL = 1;
+    private static final int PREPARE = 2;
+
+    private static final int NO_NAME = 0;
+    private static final int PLAIN_NAME = 1;
+    private static final int STYLED_NAME = 2;
+    // Stands in for names with style or children: never equal to a rename's plain text
+    private static final Component STYLED = Component.text("").append(Component.text(""));
+
+    private WorkloadLog() {
+    }
+
+    // One replayable prepare
+    static final class Entry {
+        final ItemSnapshot left;
+        final ItemSnapshot right;
+        final String renameText;
+        final AnvilResult result;
+
+        Entry(ItemSnapshot left, ItemSnapshot right, String renameText, AnvilResult result) {
+            this.left = left;
+            this.right = right;
+            this.renameText = renameText;
+            this.result = result;
+        }
+    }
+
+    static void writeHeader(DataOutput out, EnchantmentRules rules, String[] keys, int materialCount)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        int n = rules.size();
+        writeVarint(out, n);
+        for (int id = 0; id < n; id++) {
+            out.writeUTF(keys[id]);
+            writeVarint(out, rules.maxLevel(id));
+            writeVarint(out, rules.baseCost(id));
+        }
+        for (int a = 0; a < n; a++) {
+            int count = 0;
+            for (int b = 0; b < n; b++) {
+                if (rules.conflicts(a, b))
+                    count++;
+            }
+            writeVarint(out, count);
+            for (int b = 0; b < n; b++) {
+                if (rules.conflicts(a, b))
+                    writeVarint(out, b);
+            }
+        }
+        writeVarint(out, materialCount);
+    }
+
+    static void writeMaterial(DataOutput out, int material, String name, EnchantmentRules rules, RepairRules repairs,
+            int materialCount) throws IOException {
+        out.writeByte(MATERIAL);
+        writeVarint(out, material);
+        out.writeUTF(name);
+        int n = rules.size();
+        for (int base = 0; base < n; base += 8) {
+            int bits = 0;
+            for (int i = 0; i < 8 && base + i < n; i++) {
+                if (rules.canApply(base + i, material))
+                    bits |= 1 << i;
+            }
+            out.writeByte(bits);
+        }
+        int count = 0;
+        for (int m = 0; m < materialCount; m++) {
+            if (repairs.isRepairMaterial(material, m))
+                count++;
+        }
+        writeVarint(out, count);
+        for (int m = 0; m < materialCount; m++) {
+            if (repairs.isRepairMaterial(material, m))
+                writeVarint(out, m);
+        }
+    }
+
+    static void writePrepare(DataOutput out, ItemSnapshot left, ItemSnapshot right, String renameText,
+            AnvilResult result) throws IOException {
+        out.writeByte(PREPARE);
+        writeSnapshot(out, left);
+        out.writeBoolean(right != null);
+        if (right != null)
+            writeSnapshot(out, right);
+        out.writeBoolean(renameText != null);
+        if (renameText != null)
+            out.writeUTF(renameText);
+        out.writeByte(result.kind.ordinal());
+        writeVarint(out, result.cost);
+        writeVarint(out, result.repairItemCount);
+        writeVarint(out, result.damage + 1);
+        writeVarint(out, result.repairUses + 1);
+        out.writeBoolean(result.rename != null);
+        writeEnchants(out, result.enchantIds, result.enchantLevels);
+    }
+
+    private static void writeSnapshot(DataOutput out, ItemSnapshot item) throws IOException {
+        writeVarint(out, item.material);
+        writeVarint(out, item.amount);
+        writeVarint(out, item.maxDurability);
+        out.writeBoolean(item.damageable);
+        writeVarint(out, item.damage);
+        writeVarint(out, item.repairUses);
+        out.writeBoolean(item.storesEnchants);
+        writeEnchants(out, item.enchantIds, item.enchantLevels);
+        if (item.displayName == null) {
+            out.writeByte(NO_NAME);
+        } else if (item.plainName != null) {
+            out.writeByte(PLAIN_NAME);
+            out.writeUTF(item.plainName);
+        } else {
+            out.writeByte(STYLED_NAME);
+        }
+    }
+
+    // Count + 1 so that 0 can mean "unchanged" (null) in results
+    private static void writeEnchants(DataOutput out, int[] ids, int[] levels) throws IOException {
+        if (ids == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, ids.length + 1);
+        for (int i = 0; i < ids.length; i++) {
+            writeVarint(out, ids[i]);
+            writeVarint(out, levels[i]);
+        }
+    }
+
+    /**
+     * Reads a log back: the header on construction, then one prepare per
+     * {@link #next()}. Material records are folded into {@link #rules()} as
+     * they come by.
+     */
+    static final class Reader {
+        private final DataInput in;
+        private final RecordedRules rules;
+
+        Reader(DataInput in) throws IOException {
+            this.in = in;
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an anvil workload log");
+            int version = in.readUnsignedByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported workload log version " + version);
+            int n = readVarint(in);
+            String[] keys = new String[n];
+            int[] maxLevels = new int[n];
+            int[] baseCosts = new int[n];
+            for (int id = 0; id < n; id++) {
+                keys[id] = in.readUTF();
+                maxLevels[id] = readVarint(in);
+                baseCosts[id] = readVarint(in);
+            }
+            BitSet[] conflicts = new BitSet[n];
+            for (int a = 0; a < n; a++) {
+                conflicts[a] = new BitSet(n);
+                for (int i = readVarint(in); i > 0; i--) {
+                    conflicts[a].set(readVarint(in));
+                }
+            }
+            this.rules = new RecordedRules(keys, maxLevels, baseCosts, conflicts, readVarint(in));
+        }
+
+        RecordedRules rules() {
+            return rules;
+        }
+
+        // null at the end of the log, including a record cut short by a crash
+        Entry next() throws IOException {
+            try {
+                for (;;) {
+                    int tag = in.readUnsignedByte();
+                    if (tag == PREPARE)
+                        return readPrepare();
+                    if (tag != MATERIAL)
+                        throw new IOException("Corrupt workload log (record type " + tag + ")");
+                    readMaterial();
+                }
+            } catch (EOFException end) {
+                return null;
+            }
+        }
+
+        private void readMaterial() throws IOException {
+            int material = readVarint(in);
+            String name = in.readUTF();
+            int n = rules.size();
+            BitSet applies = new BitSet(n);
+            for (int base = 0; base < n; base += 8) {
+                int bits = in.readUnsignedByte();
+                for (int i = 0; i < 8 && base + i < n; i++) {
+                    if ((bits & (1 << i)) != 0)
+                        applies.set(base + i);
+                }
+            }
+            BitSet repairs = new BitSet();
+            for (int i = readVarint(in); i > 0; i--) {
+                repairs.set(readVarint(in));
+            }
+            rules.putMaterial(material, name, applies, repairs);
+        }
+
+        private Entry readPrepare() throws IOException {
+            ItemSnapshot left = readSnapshot();
+            ItemSnapshot right = in.readBoolean() ? readSnapshot() : null;
+            String renameText = in.readBoolean() ? in.readUTF() : null;
+            AnvilResult.Kind kind = AnvilResult.Kind.values()[in.readUnsignedByte()];
+            int cost = readVarint(in);
+            int repairItemCount = readVarint(in);
+            int damage = readVarint(in) - 1;
+            int repairUses = readVarint(in) - 1;
+            // The engine only ever renames to the normalized rename text
+            String rename = in.readBoolean() ? renameText : null;
+            int[][] enchants = readEnchants();
+            AnvilResult result = kind == AnvilResult.Kind.NONE ? AnvilResult.NONE
+                    : new AnvilResult(kind, cost, repairItemCount, damage, enchants[0], enchants[1], rename,
+                            repairUses);
+            return new Entry(left, right, renameText, result);
+        }
+
+        private ItemSnapshot readSnapshot() throws IOException {
+            int material = readVarint(in);
+            int amount = readVarint(in);
+            int maxDurability = readVarint(in);
+            boolean damageable = in.readBoolean();
+            int damage = readVarint(in);
+            int repairUses = readVarint(in);
+            boolean storesEnchants = in.readBoolean();
+            int[][] enchants = readEnchants();
+            Component displayName = switch (in.readUnsignedByte()) {
+                case NO_NAME -> null;
+                case PLAIN_NAME -> Component.text(in.readUTF());
+                default -> STYLED;
+            };
+            return new ItemSnapshot(material, amount, maxDurability, damageable, damage, repairUses, storesEnchants,
+                    enchants[0] != null ? enchants[0] : ItemSnapshot.NO_ENCHANTS,
+                    enchants[1] != null ? enchants[1] : ItemSnapshot.NO_ENCHANTS, displayName);
+        }
+
+        private int[][] readEnchants() throws IOException {
+            int count = readVarint(in) - 1;
+            if (count < 0)
+                return new int[2][];
+            int[] ids = new int[count];
+            int[] levels = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = readVarint(in);
+                levels[i] = readVarint(in);
+            }
+            return new int[][] { ids, levels };
+        }
+    }
+
+    // Unsigned LEB128; callers shift signed fields (-1 sentinels) by one
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt workload log (varint too long)");
+    }
+}
@@ -0,0 +1,113 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class AnvilEngineTest {
+    private final TestRules rules = new TestRules();
+    private final AnvilEngine engine = new AnvilEngine(rules, rules);
+
+    @Test
+    void emptyInputs() {
+        assertTrue(engine.compute(null, book(0, UNBREAKING, 1), "X").isEmpty());
+        assertTrue(engine.compute(item(NETHERITE_SWORD, 0, 0), null, null).isEmpty());
+        assertTrue(engine.compute(item(NETHERITE_SWORD, 0, 0), null, "").isEmpty());
+    }
+
+    @Test
+    void renameOnlyCostsOneAndKeepsPriorWork() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 100, 4), null, "Blade");
+        assertEquals(AnvilResult.Kind.RENAME, r.kind);
+        assertEquals(1, r.cost);
+        assertEquals("Blade", r.rename);
+        assertEquals(-1, r.repairUses);
+        assertEquals(-1, r.damage);
+        assertNull(r.enchantIds);
+    }
+
+    @Test
+    void unitRepairLimitedByMaterialAmount() {
+        // 507 durability per ingot, 4 needed, 2 given
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 2000, 2), material(NETHERITE_INGOT, 2), null);
+        assertEquals(AnvilResult.Kind.UNIT_REPAIR, r.kind);
+        assertEquals(2, r.repairItemCount);
+        assertEquals(2000 - 2 * 507, r.damage);
+        assertEquals(3 + 2, r.cost);
+        assertEquals(3, r.repairUses);
+    }
+
+    @Test
+    void unitRepairOfUndamagedItemDoesNothing() {
+        assertTrue(engine.compute(item(NETHERITE_SWORD, 0, 0), material(NETHERITE_INGOT, 4), null).isEmpty());
+    }
+
+    @Test
+    void sameTypeCombineRepairsAndMerges() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 1500, 1, SHARPNESS, 3),
+                item(NETHERITE_SWORD, 1000, 0, LOOTING, 2), null);
+        assertEquals(AnvilResult.Kind.COMBINE, r.kind);
+        // 531 + 1031 remaining plus a 243 bonus
+        assertEquals(2031 - 1805, r.damage);
+        assertArrayEquals(new int[] { SHARPNESS, LOOTING }, r.enchantIds);
+        assertArrayEquals(new int[] { 3, 2 }, r.enchantLevels);
+        // Penalty 1, repair 2, Looting 4 * 2
+        assertEquals(11, r.cost);
+        assertEquals(2, r.repairUses);
+    }
+
+    @Test
+    void bookOverridesConflictingEnchant() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 0, SMITE, 5, UNBREAKING, 1),
+                book(0, SHARPNESS, 4), null);
+        assertEquals(AnvilResult.Kind.ENCHANT, r.kind);
+        assertArrayEquals(new int[] { UNBREAKING, SHARPNESS }, r.enchantIds);
+        assertArrayEquals(new int[] { 1, 4 }, r.enchantLevels);
+        // Sharpness 1 * 4, halved for a book and rounded up
+        assertEquals(2, r.cost);
+    }
+
+    @Test
+    void lowerLevelBookChangesNothing() {
+        assertTrue(engine.compute(item(NETHERITE_SWORD, 0, 0, SHARPNESS, 5), book(0, SHARPNESS, 3), null).isEmpty());
+    }
+
+    @Test
+    void equalLevelsStopAtMaxLevel() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 0, SHARPNESS, 5), book(0, SHARPNESS, 5), null);
+        assertTrue(r.isEmpty());
+    }
+
+    @Test
+    void booksStoreAnything() {
+        AnvilResult r = engine.compute(book(0, PROTECTION, 4), book(0, SHARPNESS, 5), null);
+        assertEquals(AnvilResult.Kind.ENCHANT, r.kind);
+        assertArrayEquals(new int[] { PROTECTION, SHARPNESS }, r.enchantIds);
+        assertEquals(3, r.cost);
+    }
+
+    @Test
+    void priorWorkPenaltyIsClamped() {
+        assertEquals(0, AnvilEngine.priorWorkPenalty(-1));
+        assertEquals(0, AnvilEngine.priorWorkPenalty(0));
+        assertEquals(1, AnvilEngine.priorWorkPenalty(1));
+        assertEquals(7, AnvilEngine.priorWorkPenalty(3));
+        assertEquals(32767, AnvilEngine.priorWorkPenalty(15));
+        assertEquals(32767, AnvilEngine.priorWorkPenalty(40));
+    }
+
+    @Test
+    void changedResultCostsAtLeastOne() {
+        // Only the over-max clamp changes anything, which is otherwise free
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 0, SHARPNESS, 7), item(NETHERITE_SWORD, 0, 0), null);
+        assertArrayEquals(new int[] { 5 }, r.enchantLevels);
+        assertEquals(1, r.cost);
+    }
+
+    @Test
+    void highPriorWorkIsNotCapped() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 6), book(0, UNBREAKING, 1), null);
+        assertEquals(63 + 1, r.cost);
+    }
+}
@@ -0,0 +1,102 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class AnvilPolicyTest {
+    private final TestRules rules = new TestRules();
+
+    private AnvilPolicy policy(int[] maxLevels, int[][] bannedPairs, int costPercent, int costCap) {
+        long[] banned = new long[COUNT];
+        for (int[] pair : bannedPairs) {
+            banned[pair[0]] |= 1L << pair[1];
+            banned[pair[1]] |= 1L << pair[0];
+        }
+        return new AnvilPolicy(1, "test", rules, rules, maxLevels, banned, costPercent, costCap);
+    }
+
+    @Test
+    void unrestrictedMatchesEngine() {
+        AnvilPolicy policy = AnvilPolicy.unrestricted(0, "default", rules, rules);
+        AnvilEngine engine = new AnvilEngine(rules, rules);
+        ItemSnapshot sword = item(NETHERITE_SWORD, 900, 5, SHARPNESS, 4);
+        ItemSnapshot book = book(2, SHARPNESS, 4, LOOTING, 3);
+        AnvilResult expected = engine.compute(sword, book, "X");
+        AnvilResult r = policy.compute(sword, book, "X");
+        assertEquals(expected.cost, r.cost);
+        assertArrayEquals(expected.enchantIds, r.enchantIds);
+        assertArrayEquals(expected.enchantLevels, r.enchantLevels);
+    }
+
+    @Test
+    void raisedMaxLevel() {
+        int[] maxLevels = new int[COUNT];
+        maxLevels[SHARPNESS] = 10;
+        AnvilPolicy policy = policy(maxLevels, new int[0][], 100, AnvilPolicy.NO_CAP);
+        AnvilResult r = policy.compute(item(NETHERITE_SWORD, 0, 0, SHARPNESS, 9), book(0, SHARPNESS, 9), null);
+        assertArrayEquals(new int[] { 10 }, r.enchantLevels);
+        // Levels the policy leaves alone read through
+        assertEquals(rules.maxLevel(LOOTING), policy.maxLevel(LOOTING));
+    }
+
+    @Test
+    void maxLevelsReadThroughToLiveRules() {
+        int[] live = { 5 };
+        EnchantmentRules base = new EnchantmentRules() {
+            @Override
+            public int size() {
+                return rules.size();
+            }
+
+            @Override
+            public int maxLevel(int id) {
+                return id == SHARPNESS ? live[0] : rules.maxLevel(id);
+            }
+
+            @Override
+            public int baseCost(int id) {
+                return rules.baseCost(id);
+            }
+
+            @Override
+            public boolean conflicts(int a, int b) {
+                return rules.conflicts(a, b);
+            }
+
+            @Override
+            public boolean canApply(int id, int material) {
+                return rules.canApply(id, material);
+            }
+        };
+        AnvilPolicy policy = new AnvilPolicy(1, "test", base, rules, new int[COUNT], new long[COUNT], 150,
+                AnvilPolicy.NO_CAP);
+        assertEquals(5, policy.maxLevel(SHARPNESS));
+        live[0] = 7;
+        assertEquals(7, policy.maxLevel(SHARPNESS));
+    }
+
+    @Test
+    void bannedPairRefusesResult() {
+        AnvilPolicy policy = policy(new int[COUNT], new int[][] { { SHARPNESS, LOOTING } }, 100, AnvilPolicy.NO_CAP);
+        assertTrue(policy.compute(item(NETHERITE_SWORD, 0, 0, SHARPNESS, 5), book(0, LOOTING, 3), null).isEmpty());
+        assertFalse(policy.compute(item(NETHERITE_SWORD, 0, 0, SHARPNESS, 5), book(0, MENDING, 1), null).isEmpty());
+    }
+
+    @Test
+    void multiplierRoundsHalfUpAndKeepsOneLevel() {
+        // Unbreaking III from a book costs 3
+        AnvilPolicy scaled = policy(new int[COUNT], new int[0][], 150, AnvilPolicy.NO_CAP);
+        assertEquals(5, scaled.compute(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 3), null).cost);
+        AnvilPolicy cheap = policy(new int[COUNT], new int[0][], 10, AnvilPolicy.NO_CAP);
+        assertEquals(1, cheap.compute(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 3), null).cost);
+    }
+
+    @Test
+    void costCapRefusesAbove() {
+        AnvilPolicy policy = policy(new int[COUNT], new int[0][], 100, 3);
+        assertEquals(3, policy.compute(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 3), null).cost);
+        assertTrue(policy.compute(item(NETHERITE_SWORD, 0, 1), book(0, UNBREAKING, 3), null).isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+package com.anvilsunlocked;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+    @Test
+    void bucketsBoundTheirValuesWithinAQuarter() {
+        for (long v = 0; v < 1 << 20; v = v < 64 ? v + 1 : v + v / 7) {
+            check(v);
+        }
+        for (int exp = 2; exp < 62; exp++) {
+            check((1L << exp) - 1);
+            check(1L << exp);
+            check((1L << exp) + 1);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    private static void check(long v) {
+        int bucket = LatencyHistogram.bucket(v);
+        long upper = LatencyHistogram.upperBound(bucket);
+        assertTrue(upper >= v, v + " above its bucket's bound " + upper);
+        assertTrue(upper - v <= v / 4, v + " too far from its bucket's bound " + upper);
+        assertEquals(bucket, LatencyHistogram.bucket(upper));
+    }
+
+    @Test
+    void summaries() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.mean());
+        assertEquals(0, histogram.percentile(0.5));
+        for (int v = 1; v <= 1000; v++) {
+            histogram.record(v);
+        }
+        histogram.record(-5);
+        assertEquals(1001, histogram.count());
+        assertEquals(500, histogram.mean());
+        assertEquals(1000, histogram.max());
+        long median = histogram.percentile(0.5);
+        assertTrue(median >= 500 && median <= 625, "median " + median);
+        // Never past the largest value recorded
+        assertEquals(1000, histogram.percentile(1.0));
+    }
+
+    @Test
+    void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(123_456);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(0.99));
+    }
+}
@@ -0,0 +1,137 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MergePlannerTest {
+    private static final long BUDGET = 10_000_000_000L;
+
+    private final TestRules rules = new TestRules();
+    private final AnvilEngine engine = new AnvilEngine(rules, rules);
+    private final MergePlanner planner = new MergePlanner(engine);
+
+    // Runs the plan through the engine, checking every step matches it; returns the nodes
+    private List<ItemSnapshot> replay(List<ItemSnapshot> items, MergePlanner.Plan plan) {
+        List<ItemSnapshot> nodes = new ArrayList<>(items);
+        int total = 0;
+        for (int k = 0; k < plan.steps(); k++) {
+            ItemSnapshot left = nodes.get(plan.stepLeft[k]);
+            ItemSnapshot right = nodes.get(plan.stepRight[k]);
+            AnvilResult r = engine.compute(left, right, null);
+            assertEquals(plan.stepResult[k].cost, r.cost);
+            assertTrue(MergePlanner.lossless(left, right, r));
+            nodes.add(left.apply(r));
+            total += r.cost;
+        }
+        assertEquals(plan.totalCost, total);
+        return nodes;
+    }
+
+    @Test
+    void booksOntoTarget() {
+        List<ItemSnapshot> items = List.of(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 3), book(0, MENDING, 1),
+                book(0, LOOTING, 3), book(0, FIRE_ASPECT, 2), book(0, SHARPNESS, 5));
+        MergePlanner.Plan greedy = planner.greedy(items, 0);
+        MergePlanner.Plan plan = planner.optimal(items, 0, BUDGET);
+        assertTrue(plan.optimal);
+        assertTrue(plan.totalCost <= greedy.totalCost);
+        assertEquals(1, plan.survivors.length);
+        assertEquals(items.size() - 1, plan.steps());
+
+        List<ItemSnapshot> nodes = replay(items, plan);
+        ItemSnapshot result = nodes.get(plan.survivors[0]);
+        assertEquals(NETHERITE_SWORD, result.material);
+        assertEquals(3, result.levelOf(UNBREAKING));
+        assertEquals(1, result.levelOf(MENDING));
+        assertEquals(3, result.levelOf(LOOTING));
+        assertEquals(2, result.levelOf(FIRE_ASPECT));
+        assertEquals(5, result.levelOf(SHARPNESS));
+        // The target only ever sits in the left slot
+        for (int k = 0; k < plan.steps(); k++) {
+            assertNotEquals(0, plan.stepRight[k]);
+        }
+        replay(items, greedy);
+    }
+
+    @Test
+    void equalBooksMergeUp() {
+        List<ItemSnapshot> items = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            items.add(book(0, SHARPNESS, 3));
+        }
+        MergePlanner.Plan plan = planner.optimal(items, -1, BUDGET);
+        assertEquals(1, plan.survivors.length);
+        ItemSnapshot result = replay(items, plan).get(plan.survivors[0]);
+        assertEquals(5, result.levelOf(SHARPNESS));
+    }
+
+    @Test
+    void lossyMergesAreLeftOut() {
+        // Sharpness would replace Smite
+        List<ItemSnapshot> items = List.of(item(NETHERITE_SWORD, 0, 0, SMITE, 5), book(0, SHARPNESS, 5),
+                book(0, UNBREAKING, 3));
+        MergePlanner.Plan plan = planner.optimal(items, 0, BUDGET);
+        assertEquals(1, plan.steps());
+        assertEquals(2, plan.survivors.length);
+        ItemSnapshot merged = replay(items, plan).get(items.size());
+        assertEquals(5, merged.levelOf(SMITE));
+        assertEquals(3, merged.levelOf(UNBREAKING));
+    }
+
+    @Test
+    void exhaustedBudgetFallsBackToGreedy() {
+        List<ItemSnapshot> items = new ArrayList<>();
+        items.add(item(NETHERITE_PICKAXE, 0, 0));
+        for (int id : new int[] { UNBREAKING, MENDING, EFFICIENCY, FORTUNE, VANISHING_CURSE }) {
+            items.add(book(0, id, rules.maxLevel(id)));
+        }
+        MergePlanner.Plan plan = planner.optimal(items, 0, 0);
+        assertFalse(plan.optimal);
+        assertEquals(planner.greedy(items, 0).totalCost, plan.totalCost);
+        replay(items, plan);
+    }
+
+    @Test
+    void policyBansAreRoutedAround() {
+        long[] banned = new long[COUNT];
+        banned[SHARPNESS] |= 1L << LOOTING;
+        banned[LOOTING] |= 1L << SHARPNESS;
+        AnvilPolicy policy = new AnvilPolicy(1, "test", rules, rules, new int[COUNT], banned, 100,
+                AnvilPolicy.NO_CAP);
+        List<ItemSnapshot> items = List.of(item(NETHERITE_SWORD, 0, 0), book(0, SHARPNESS, 5), book(0, LOOTING, 3),
+                book(0, UNBREAKING, 3));
+        MergePlanner.Plan plan = new MergePlanner(policy).optimal(items, 0, BUDGET);
+        // One of the banned pair stays separate, everything else merges
+        assertEquals(2, plan.steps());
+        assertEquals(2, plan.survivors.length);
+        for (AnvilResult r : plan.stepResult) {
+            assertFalse(r.isEmpty());
+        }
+    }
+
+    @Test
+    void policyCostsAndCapArePlannedFor() {
+        List<ItemSnapshot> items = List.of(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 3), book(0, MENDING, 1),
+                book(0, LOOTING, 3), book(0, FIRE_ASPECT, 2), book(0, SHARPNESS, 5));
+        MergePlanner.Plan plain = planner.optimal(items, 0, BUDGET);
+        int highest = 0;
+        for (AnvilResult r : plain.stepResult) {
+            highest = Math.max(highest, r.cost);
+        }
+        int cap = highest * 2 - 1;
+        AnvilPolicy policy = new AnvilPolicy(1, "test", rules, rules, new int[COUNT], new long[COUNT], 200, cap);
+        MergePlanner.Plan plan = new MergePlanner(policy).optimal(items, 0, BUDGET);
+        assertTrue(plan.steps() > 0);
+        int total = 0;
+        for (AnvilResult r : plan.stepResult) {
+            assertTrue(r.cost <= cap, "step over the cap: " + r.cost);
+            total += r.cost;
+        }
+        assertEquals(plan.totalCost, total);
+    }
+}
@@ -0,0 +1,129 @@
+package com.anvilsunlocked;
+
+/**
+ * Server-free stand-in for the Bukkit-backed rules: a vanilla-like subset of
+ * enchantments and materials, addressed the same way (dense ids, material
+ * ordinals) as in production. Shared by the tests and the JMH benchmarks.
+ */
+final class TestRules implements EnchantmentRules, RepairRules {
+    // Materials
+    static final int NETHERITE_SWORD = 0;
+    static final int NETHERITE_CHESTPLATE = 1;
+    static final int NETHERITE_PICKAXE = 2;
+    static final int ENCHANTED_BOOK = 3;
+    static final int NETHERITE_INGOT = 4;
+    static final int MATERIAL_COUNT = 5;
+
+    // Enchantments
+    static final int PROTECTION = 0;
+    static final int FIRE_PROTECTION = 1;
+    static final int BLAST_PROTECTION = 2;
+    static final int PROJECTILE_PROTECTION = 3;
+    static final int THORNS = 4;
+    static final int UNBREAKING = 5;
+    static final int MENDING = 6;
+    static final int SHARPNESS = 7;
+    static final int SMITE = 8;
+    static final int BANE_OF_ARTHROPODS = 9;
+    static final int LOOTING = 10;
+    static final int FIRE_ASPECT = 11;
+    static final int SWEEPING_EDGE = 12;
+    static final int KNOCKBACK = 13;
+    static final int EFFICIENCY = 14;
+    static final int FORTUNE = 15;
+    static final int SILK_TOUCH = 16;
+    static final int VANISHING_CURSE = 17;
+    static final int COUNT = 18;
+
+    private static final int[] MAX_LEVEL = { 4, 4, 4, 4, 3, 3, 1, 5, 5, 5, 3, 2, 3, 2, 5, 3, 1, 1 };
+    private static final int[] BASE_COST = { 1, 2, 4, 2, 8, 2, 4, 1, 2, 2, 4, 4, 4, 2, 1, 4, 8, 8 };
+
+    private static final int[][] EXCLUSIVE = {
+            { PROTECTION, FIRE_PROTECTION, BLAST_PROTECTION, PROJECTILE_PROTECTION },
+            { SHARPNESS, SMITE, BANE_OF_ARTHROPODS },
+            { FORTUNE, SILK_TOUCH },
+    };
+
+    private final boolean[][] conflicts = new boolean[COUNT][COUNT];
+    private final boolean[][] applies = new boolean[COUNT][MATERIAL_COUNT];
+
+    TestRules() {
+        for (int[] group : EXCLUSIVE) {
+            for (int a : group) {
+                for (int b : group) {
+                    conflicts[a][b] = a != b;
+                }
+            }
+        }
+        for (int id : new int[] { UNBREAKING, MENDING, VANISHING_CURSE }) {
+            applies[id][NETHERITE_SWORD] = true;
+            applies[id][NETHERITE_CHESTPLATE] = true;
+            applies[id][NETHERITE_PICKAXE] = true;
+        }
+        for (int id = PROTECTION; id <= THORNS; id++) {
+            applies[id][NETHERITE_CHESTPLATE] = true;
+        }
+        for (int id = SHARPNESS; id <= KNOCKBACK; id++) {
+            applies[id][NETHERITE_SWORD] = true;
+        }
+        for (int id = EFFICIENCY; id <= SILK_TOUCH; id++) {
+            applies[id][NETHERITE_PICKAXE] = true;
+        }
+    }
+
+    @Override
+    public int size() {
+        return COUNT;
+    }
+
+    @Override
+    public int maxLevel(int id) {
+        return MAX_LEVEL[id];
+    }
+
+    @Override
+    public int baseCost(int id) {
+        return BASE_COST[id];
+    }
+
+    @Override
+    public boolean conflicts(int a, int b) {
+        return conflicts[a][b];
+    }
+
+    @Override
+    public boolean canApply(int id, int material) {
+        return applies[id][material];
+    }
+
+    @Override
+    public boolean isRepairMaterial(int item, int material) {
+        return material == NETHERITE_INGOT && item <= NETHERITE_PICKAXE;
+    }
+
+    static ItemSnapshot item(int material, int damage, int repairUses, int... enchants) {
+        int maxDurability = material == NETHERITE_CHESTPLATE ? 592 : material == ENCHANTED_BOOK ? 0 : 2031;
+        return snapshot(material, 1, maxDurability, damage, repairUses, false, enchants);
+    }
+
+    static ItemSnapshot book(int repairUses, int... enchants) {
+        return snapshot(ENCHANTED_BOOK, 1, 0, 0, repairUses, true, enchants);
+    }
+
+    static ItemSnapshot material(int material, int amount) {
+        return snapshot(material, amount, 0, 0, 0, false);
+    }
+
+    // enchants: id, level, id, level, ...
+    private static ItemSnapshot snapshot(int material, int amount, int maxDurability, int damage, int repairUses,
+            boolean stores, int... enchants) {
+        int n = enchants.length / 2;
+        int[] ids = new int[n];
+        int[] levels = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = enchants[i * 2];
+            levels[i] = enchants[i * 2 + 1];
+        }
+        return new ItemSnapshot(material, amount, maxDurability, true, damage, repairUses, stores, ids, levels, null);
+    }
+}
@@ -0,0 +1,83 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Engine results against what a vanilla 1.21 anvil shows for the same inputs
+ * (below the 40-level cap), worked out from the vanilla rules: prior work
+ * penalties, anvil costs halved for books, unit and same-type repair. Runs
+ * without a server; {@link AnvilDiff} compares against the server's own anvil
+ * in game.
+ */
+class VanillaParityTest {
+    private final AnvilEngine engine = new AnvilEngine(new TestRules(), new TestRules());
+
+    @Test
+    void bookOntoPlainItem() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 3), null);
+        assertEquals(AnvilResult.Kind.ENCHANT, r.kind);
+        assertEquals(3, r.cost);
+        assertArrayEquals(new int[] { UNBREAKING }, r.enchantIds);
+        assertArrayEquals(new int[] { 3 }, r.enchantLevels);
+        assertEquals(1, r.repairUses);
+    }
+
+    @Test
+    void equalLevelsBumpAndPayPriorWork() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 1, UNBREAKING, 2), book(1, UNBREAKING, 2), null);
+        assertEquals(5, r.cost);
+        assertArrayEquals(new int[] { 3 }, r.enchantLevels);
+        assertEquals(2, r.repairUses);
+    }
+
+    @Test
+    void bookAddsToEnchantedItem() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 2, LOOTING, 2), book(0, MENDING, 1), null);
+        assertEquals(5, r.cost);
+        assertArrayEquals(new int[] { LOOTING, MENDING }, r.enchantIds);
+        assertArrayEquals(new int[] { 2, 1 }, r.enchantLevels);
+    }
+
+    @Test
+    void unitRepair() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 1200, 0), material(NETHERITE_INGOT, 4), null);
+        assertEquals(AnvilResult.Kind.UNIT_REPAIR, r.kind);
+        assertEquals(3, r.repairItemCount);
+        assertEquals(0, r.damage);
+        assertEquals(3, r.cost);
+    }
+
+    @Test
+    void sameTypeRepair() {
+        AnvilResult r = engine.compute(item(NETHERITE_CHESTPLATE, 400, 0), item(NETHERITE_CHESTPLATE, 300, 0), null);
+        assertEquals(AnvilResult.Kind.COMBINE, r.kind);
+        assertEquals(37, r.damage);
+        assertEquals(2, r.cost);
+        assertNull(r.enchantIds);
+    }
+
+    @Test
+    void inapplicableBookDoesNothing() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 0), book(0, PROTECTION, 4), null);
+        assertTrue(r.isEmpty());
+    }
+
+    @Test
+    void sameTypeEqualLevelsBump() {
+        ItemSnapshot sword = item(NETHERITE_SWORD, 0, 0, SHARPNESS, 4);
+        AnvilResult r = engine.compute(sword, sword, null);
+        assertEquals(AnvilResult.Kind.COMBINE, r.kind);
+        assertArrayEquals(new int[] { 5 }, r.enchantLevels);
+        assertEquals(5, r.cost);
+    }
+
+    @Test
+    void renameAddsOneLevel() {
+        AnvilResult r = engine.compute(item(NETHERITE_SWORD, 0, 0), book(0, UNBREAKING, 1), "X");
+        assertEquals(2, r.cost);
+        assertEquals("X", r.rename);
+    }
+}
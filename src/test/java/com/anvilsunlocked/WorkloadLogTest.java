@@ -0,0 +1,96 @@
+package com.anvilsunlocked;
+
+import static com.anvilsunlocked.TestRules.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class WorkloadLogTest {
+    private final TestRules rules = new TestRules();
+    private final AnvilEngine engine = new AnvilEngine(rules, rules);
+
+    private byte[] log(ItemSnapshot left, ItemSnapshot right, String renameText) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        String[] keys = new String[COUNT];
+        for (int id = 0; id < COUNT; id++) {
+            keys[id] = "test:enchantment_" + id;
+        }
+        WorkloadLog.writeHeader(out, rules, keys, MATERIAL_COUNT);
+        WorkloadLog.writeMaterial(out, NETHERITE_SWORD, "NETHERITE_SWORD", rules, rules, MATERIAL_COUNT);
+        WorkloadLog.writePrepare(out, left, right, renameText, engine.compute(left, right, renameText));
+        WorkloadLog.writePrepare(out, left, null, null, AnvilResult.NONE);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static WorkloadLog.Reader reader(byte[] log) throws IOException {
+        return new WorkloadLog.Reader(new DataInputStream(new ByteArrayInputStream(log)));
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        ItemSnapshot left = new ItemSnapshot(NETHERITE_SWORD, 1, 2031, true, 700, 3, false,
+                new int[] { SMITE, UNBREAKING }, new int[] { 5, 2 }, Names.text("Old"));
+        ItemSnapshot right = book(1, SHARPNESS, 4, UNBREAKING, 2);
+        WorkloadLog.Reader reader = reader(log(left, right, "New"));
+
+        RecordedRules recorded = reader.rules();
+        assertEquals(COUNT, recorded.size());
+        assertEquals("test:enchantment_" + SHARPNESS, recorded.key(SHARPNESS));
+        for (int a = 0; a < COUNT; a++) {
+            assertEquals(rules.maxLevel(a), recorded.maxLevel(a));
+            assertEquals(rules.baseCost(a), recorded.baseCost(a));
+            for (int b = 0; b < COUNT; b++) {
+                assertEquals(rules.conflicts(a, b), recorded.conflicts(a, b));
+            }
+        }
+
+        WorkloadLog.Entry entry = reader.next();
+        assertEquals(left, entry.left);
+        assertEquals(right, entry.right);
+        assertEquals("New", entry.renameText);
+        AnvilResult expected = engine.compute(left, right, "New");
+        assertEquals(expected.kind, entry.result.kind);
+        assertEquals(expected.cost, entry.result.cost);
+        assertEquals(expected.damage, entry.result.damage);
+        assertEquals(expected.repairUses, entry.result.repairUses);
+        assertEquals(expected.rename, entry.result.rename);
+        assertArrayEquals(expected.enchantIds, entry.result.enchantIds);
+        assertArrayEquals(expected.enchantLevels, entry.result.enchantLevels);
+
+        // The material record came before the prepare
+        assertEquals("NETHERITE_SWORD", recorded.materialName(NETHERITE_SWORD));
+        for (int id = 0; id < COUNT; id++) {
+            assertEquals(rules.canApply(id, NETHERITE_SWORD), recorded.canApply(id, NETHERITE_SWORD));
+        }
+        assertTrue(recorded.isRepairMaterial(NETHERITE_SWORD, NETHERITE_INGOT));
+        assertFalse(recorded.isRepairMaterial(NETHERITE_SWORD, NETHERITE_SWORD));
+
+        WorkloadLog.Entry empty = reader.next();
+        assertNull(empty.right);
+        assertNull(empty.renameText);
+        assertSame(AnvilResult.NONE, empty.result);
+        assertNull(reader.next());
+    }
+
+    @Test
+    void truncatedRecordEndsTheLog() throws IOException {
+        byte[] log = log(item(NETHERITE_SWORD, 10, 0), book(0, MENDING, 1), null);
+        WorkloadLog.Reader reader = reader(Arrays.copyOf(log, log.length - 2));
+        assertNotNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void rejectsOtherFiles() {
+        assertThrows(IOException.class, () -> reader("not a workload log".getBytes()));
+    }
+}